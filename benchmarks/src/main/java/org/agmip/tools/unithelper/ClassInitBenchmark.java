@@ -0,0 +1,97 @@
+package org.agmip.tools.unithelper;
+
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ucar.units.Unit;
+
+/**
+ * One-shot cost of bringing up UnitConverter: loading the class, building the
+ * UDUnits databases and answering the first conversion. Every invocation uses
+ * a fresh class loader over the library, UDUnits and json-simple jars, so no
+ * static state survives from the previous one. The {@code catalog} parameter
+ * compares the start from the UDUnits XML files with the start from a
+ * {@link CatalogSnapshot}, written once per trial.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(3)
+@State(Scope.Thread)
+public class ClassInitBenchmark {
+
+    private static final String CONVERTER = "org.agmip.tools.unithelper.UnitConverter";
+    @Param({"standard", "snapshot"})
+    public String catalog;
+
+    private URLClassLoader loader;
+    private Path snapshot;
+
+    @Setup(Level.Trial)
+    public void setupCatalog() throws Exception {
+        System.clearProperty(CatalogSnapshot.PROPERTY);
+        if (catalog.equals("snapshot")) {
+            snapshot = Files.createTempFile("unit-catalog", ".bin.gz");
+            try (OutputStream out = Files.newOutputStream(snapshot)) {
+                CatalogSnapshot.write(out);
+            }
+            System.setProperty(CatalogSnapshot.PROPERTY, snapshot.toString());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownCatalog() throws Exception {
+        System.clearProperty(CatalogSnapshot.PROPERTY);
+        if (snapshot != null) {
+            Files.delete(snapshot);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        loader = new URLClassLoader(new URL[]{
+            locationOf(UnitConverter.class),
+            locationOf(Unit.class),
+            locationOf(JSONObject.class)
+        }, null);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws Exception {
+        loader.close();
+    }
+
+    private static URL locationOf(Class<?> cls) {
+        return cls.getProtectionDomain().getCodeSource().getLocation();
+    }
+
+    @Benchmark
+    public Object loadClass() throws Exception {
+        return Class.forName(CONVERTER, true, loader);
+    }
+
+    @Benchmark
+    public Object firstConversion() throws Exception {
+        Class<?> cls = Class.forName(CONVERTER, true, loader);
+        return cls.getMethod("convertToJsonStr", String.class, String.class, String.class)
+                .invoke(null, "MJ/m2/d", "W/m2", "12.5");
+    }
+}
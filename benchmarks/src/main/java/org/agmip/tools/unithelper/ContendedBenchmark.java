@@ -0,0 +1,64 @@
+package org.agmip.tools.unithelper;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the conversion path when all threads share a few hot unit
+ * pairs, which all hit the same cache entries. Run with {@code -t 1}, then
+ * with more threads, to see how the cached path scales.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class ContendedBenchmark {
+
+    private static final String[][] PAIRS = {{"kg[N]/ha", "g/m2"}, {"MJ/m2/d", "W/m2"}};
+
+    @Param({"12.5"})
+    public String value;
+
+    private BigDecimal decimal;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        decimal = new BigDecimal(value);
+        for (String[] pair : PAIRS) {
+            UnitConverter.convert(pair[0], pair[1], decimal);
+        }
+    }
+
+    @Benchmark
+    public BigDecimal convertHotPairs(Cursor cursor) throws Exception {
+        String[] pair = PAIRS[cursor.next++ & 1];
+        return UnitConverter.convert(pair[0], pair[1], decimal);
+    }
+
+    @Benchmark
+    public String convertToJsonStrHotPairs(Cursor cursor) {
+        String[] pair = PAIRS[cursor.next++ & 1];
+        return UnitConverter.convertToJsonStr(pair[0], pair[1], decimal);
+    }
+}
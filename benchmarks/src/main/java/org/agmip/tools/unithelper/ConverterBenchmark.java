@@ -0,0 +1,100 @@
+package org.agmip.tools.unithelper;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ucar.units.ConversionException;
+import ucar.units.NoSuchUnitException;
+import ucar.units.PrefixDBException;
+import ucar.units.SpecificationException;
+import ucar.units.UnitDBException;
+import ucar.units.UnitParseException;
+import ucar.units.UnitSystemException;
+
+/**
+ * Steady-state cost of the public conversion entry points on the unit pairs
+ * found in ICASA data files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ConverterBenchmark {
+
+    @Param({"MJ/m2/d|W/m2", "kg[N]/ha|g/m2", "g[C]/100g[soil]|%", "degF|degC"})
+    public String pair;
+
+    @Param({"12.5"})
+    public String value;
+
+    private String unitFrom;
+    private String unitTo;
+    private BigDecimal decimal;
+
+    @Setup
+    public void setup() throws Exception {
+        int idx = pair.indexOf('|');
+        unitFrom = pair.substring(0, idx);
+        unitTo = pair.substring(idx + 1);
+        decimal = new BigDecimal(value);
+        // Fail fast on a broken pair instead of timing the exception path
+        UnitConverter.convert(unitFrom, unitTo, value);
+    }
+
+    @Benchmark
+    public BigDecimal convertString() throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        return UnitConverter.convert(unitFrom, unitTo, value);
+    }
+
+    @Benchmark
+    public BigDecimal convertStringScale() throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        return UnitConverter.convert(unitFrom, unitTo, value, 2);
+    }
+
+    @Benchmark
+    public BigDecimal convertBigDecimal() throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        return UnitConverter.convert(unitFrom, unitTo, decimal);
+    }
+
+    @Benchmark
+    public BigDecimal convertBigDecimalScale() throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        return UnitConverter.convert(unitFrom, unitTo, decimal, 2);
+    }
+
+    @Benchmark
+    public String convertToJsonStr() {
+        return UnitConverter.convertToJsonStr(unitFrom, unitTo, value);
+    }
+
+    @Benchmark
+    public String preParsing() {
+        return UnitConverter.preParsing(unitFrom);
+    }
+
+    @Benchmark
+    public boolean isValid() {
+        return UnitConverter.isValid(unitFrom);
+    }
+
+    @Benchmark
+    public String getDescp() {
+        return UnitConverter.getDescp(unitFrom);
+    }
+
+    @Benchmark
+    public String getCategory() {
+        return UnitConverter.getCategory(unitFrom);
+    }
+}
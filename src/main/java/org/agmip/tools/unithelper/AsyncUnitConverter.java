@@ -0,0 +1,227 @@
+package org.agmip.tools.unithelper;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Asynchronous conversions which coalesce concurrent requests for the same
+ * unit pair. A request joins the pending batch of its pair, and one task per
+ * batch resolves the pair once, converts all the values of the batch and
+ * completes their futures together. Requests keep joining a batch until its
+ * task starts or it reaches the maximum batch size, so a busy executor makes
+ * larger batches.
+ *
+ * <p>The results have the status and message of
+ * {@link UnitConverter#convertToJsonObj(String, String, BigDecimal)}, and the
+ * futures complete normally for failed conversions. As with
+ * {@link ParallelConverter}, the per-call {@link ConversionListener} events
+ * are not fired.</p>
+ */
+public final class AsyncUnitConverter {
+
+    private static final int DEFAULT_MAX_BATCH = 256;
+
+    private final Executor executor;
+    private final int maxBatch;
+    private final ConcurrentHashMap<UnitPair, Batch> pending = new ConcurrentHashMap();
+
+    /**
+     * Converter running on a virtual thread per batch when the runtime
+     * supports virtual threads, otherwise on the common pool.
+     */
+    public AsyncUnitConverter() {
+        this(defaultExecutor(), DEFAULT_MAX_BATCH);
+    }
+
+    public AsyncUnitConverter(Executor executor) {
+        this(executor, DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * @param executor The executor running one task per batch
+     * @param maxBatch The number of requests after which a batch takes no
+     * more requests
+     */
+    public AsyncUnitConverter(Executor executor, int maxBatch) {
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("Maximum batch size must be positive: " + maxBatch);
+        }
+        this.executor = executor;
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * @return the virtual thread per task executor of the runtime, or the
+     * common pool when virtual threads are not available
+     */
+    public static Executor defaultExecutor() {
+        Executor ret = VirtualThreads.EXECUTOR;
+        return ret == null ? ForkJoinPool.commonPool() : ret;
+    }
+
+    /**
+     * @return true if the runtime supports virtual threads
+     */
+    public static boolean isVirtualThreadAvailable() {
+        return VirtualThreads.EXECUTOR != null;
+    }
+
+    /**
+     * Holder of the virtual thread executor, looked up reflectively so the
+     * library still runs on Java 8.
+     */
+    private static final class VirtualThreads {
+
+        static final Executor EXECUTOR = lookup();
+
+        private static Executor lookup() {
+            try {
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (Executor) method.invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                return null;
+            }
+        }
+    }
+
+    public CompletableFuture<ConversionResult> convert(ConversionRequest request) {
+        CompletableFuture<ConversionResult> ret = new CompletableFuture();
+        if (request.getFromUnit() == null || request.getToUnit() == null) {
+            ret.complete(ParallelConverter.Resolved.UNDEFINED.convert(request));
+            return ret;
+        }
+        UnitPair key = new UnitPair(request.getFromUnit(), request.getToUnit());
+        while (true) {
+            Batch batch = pending.get(key);
+            if (batch == null) {
+                batch = new Batch(key, maxBatch);
+                batch.add(request, ret);
+                if (pending.putIfAbsent(key, batch) == null) {
+                    schedule(batch);
+                    return ret;
+                }
+            } else if (batch.add(request, ret)) {
+                return ret;
+            } else {
+                pending.remove(key, batch);
+            }
+        }
+    }
+
+    public CompletableFuture<ConversionResult> convert(String fromUnit, String toUnit, BigDecimal val) {
+        return convert(new ConversionRequest(fromUnit, toUnit, val));
+    }
+
+    public CompletableFuture<ConversionResult> convert(String fromUnit, String toUnit, BigDecimal val, int scale) {
+        return convert(new ConversionRequest(fromUnit, toUnit, val, scale));
+    }
+
+    /**
+     * Asynchronous version of
+     * {@link UnitConverter#convertToJsonStr(String, String, String)}.
+     */
+    public CompletableFuture<String> convertToJsonStr(String fromUnit, String toUnit, String val) {
+        return convert(new ConversionRequest(fromUnit, toUnit, val)).thenApply(ConversionResult::toJsonStr);
+    }
+
+    public CompletableFuture<String> convertToJsonStr(String fromUnit, String toUnit, BigDecimal val) {
+        return convert(new ConversionRequest(fromUnit, toUnit, val)).thenApply(ConversionResult::toJsonStr);
+    }
+
+    public CompletableFuture<String> convertToJsonStr(String fromUnit, String toUnit, BigDecimal val, int scale) {
+        return convert(new ConversionRequest(fromUnit, toUnit, val, scale)).thenApply(ConversionResult::toJsonStr);
+    }
+
+    /**
+     * @return the number of unit pairs with a batch waiting for its task
+     */
+    public int getPendingBatches() {
+        return pending.size();
+    }
+
+    private void schedule(Batch batch) {
+        try {
+            executor.execute(batch);
+        } catch (RejectedExecutionException ex) {
+            pending.remove(batch.key, batch);
+            batch.fail(ex);
+        }
+    }
+
+    /**
+     * Requests of one unit pair, converted by a single task.
+     */
+    private final class Batch implements Runnable {
+
+        private final UnitPair key;
+        private final int max;
+        private ConversionRequest[] requests = new ConversionRequest[4];
+        private CompletableFuture<ConversionResult>[] futures = new CompletableFuture[4];
+        private int size;
+        private boolean closed;
+
+        Batch(UnitPair key, int max) {
+            this.key = key;
+            this.max = max;
+        }
+
+        /**
+         * @return false if the batch has started or is full
+         */
+        synchronized boolean add(ConversionRequest request, CompletableFuture<ConversionResult> future) {
+            if (closed || size >= max) {
+                return false;
+            }
+            if (size == requests.length) {
+                int length = Math.min(size * 2, max);
+                requests = Arrays.copyOf(requests, length);
+                futures = Arrays.copyOf(futures, length);
+            }
+            requests[size] = request;
+            futures[size] = future;
+            size++;
+            return true;
+        }
+
+        private synchronized int close() {
+            closed = true;
+            return size;
+        }
+
+        @Override
+        public void run() {
+            pending.remove(key, this);
+            int count = close();
+            ConversionResult[] results = new ConversionResult[count];
+            try {
+                ParallelConverter.Resolved resolved = ParallelConverter.Resolved.of(key.getFromUnit(), key.getToUnit());
+                for (int i = 0; i < count; i++) {
+                    results[i] = resolved.convert(requests[i]);
+                }
+            } catch (RuntimeException | Error ex) {
+                fail(ex);
+                throw ex;
+            }
+            for (int i = 0; i < count; i++) {
+                futures[i].complete(results[i]);
+            }
+        }
+
+        void fail(Throwable ex) {
+            int count = close();
+            for (int i = 0; i < count; i++) {
+                futures[i].completeExceptionally(ex);
+            }
+        }
+    }
+}
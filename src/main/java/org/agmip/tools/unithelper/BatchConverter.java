@@ -0,0 +1,412 @@
+package org.agmip.tools.unithelper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.io.StringReader;
+import java.util.regex.Pattern;
+import org.json.simple.JSONObject;
+
+/**
+ * Streaming batch conversion of JSON requests. The input is either a JSON
+ * array of request objects or newline delimited JSON (one object per line),
+ * each with {@code unit_from}, {@code unit_to}, {@code value_from} and an
+ * optional {@code scale}. Each request is answered with the same object as
+ * {@link UnitConverter#convertToJsonObj(String, String, String)}, written as
+ * soon as it is converted, so memory use does not grow with the input size.
+ * A JSON array input gives a JSON array output, otherwise one result object
+ * is written per line.
+ */
+public final class BatchConverter {
+
+    private BatchConverter() {
+    }
+
+    /**
+     * Convert the UTF-8 encoded requests from the input stream.
+     *
+     * @param in The conversion requests
+     * @param out The destination of the conversion results
+     * @return The number of converted records
+     * @throws IOException if the input can not be read, the output can not be
+     * written, or the JSON array input is malformed
+     */
+    public static long convert(InputStream in, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        long ret = convert(new InputStreamReader(in, StandardCharsets.UTF_8), writer);
+        writer.flush();
+        return ret;
+    }
+
+    /**
+     * Convert the requests from the reader.
+     *
+     * @param in The conversion requests
+     * @param out The destination of the conversion results
+     * @return The number of converted records
+     * @throws IOException if the input can not be read, the output can not be
+     * written, or the JSON array input is malformed
+     */
+    public static long convert(Reader in, Writer out) throws IOException {
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        int first = peek(reader);
+        if (first == '[') {
+            return convertArray(reader, out);
+        } else {
+            return convertLines(reader, out);
+        }
+    }
+
+    private static int peek(BufferedReader reader) throws IOException {
+        while (true) {
+            reader.mark(1);
+            int c = reader.read();
+            if (c < 0) {
+                return c;
+            } else if (!Character.isWhitespace(c) && c != '\uFEFF') {
+                reader.reset();
+                return c;
+            }
+        }
+    }
+
+    private static long convertLines(BufferedReader reader, Writer out) throws IOException {
+        long count = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            Request request;
+            try {
+                RequestReader parser = new RequestReader(new StringReader(line));
+                request = parser.readElement();
+                if (parser.skipWhitespace() >= 0) {
+                    request.invalid = true;
+                }
+            } catch (IOException ex) {
+                request = new Request();
+                request.invalid = true;
+            }
+            writeResult(request, out);
+            out.write('\n');
+            count++;
+        }
+        return count;
+    }
+
+    private static long convertArray(BufferedReader reader, Writer out) throws IOException {
+        RequestReader parser = new RequestReader(reader);
+        long count = 0;
+        out.write('[');
+        parser.expect('[');
+        if (parser.skipWhitespace() == ']') {
+            parser.read();
+        } else {
+            while (true) {
+                Request request = parser.readElement();
+                if (count > 0) {
+                    out.write(',');
+                }
+                writeResult(request, out);
+                count++;
+                int c = parser.skipWhitespace();
+                parser.read();
+                if (c == ']') {
+                    break;
+                } else if (c != ',') {
+                    throw parser.error("',' or ']'");
+                }
+            }
+        }
+        out.write(']');
+        return count;
+    }
+
+    static void writeResult(Request request, Writer out) throws IOException {
+        BigDecimal val = null;
+        if (!request.invalid && request.valueFrom != null) {
+            try {
+                val = new BigDecimal(request.valueFrom);
+            } catch (NumberFormatException ex) {
+                val = null;
+            }
+        }
+        if (val != null && request.unitFrom != null && request.unitTo != null) {
+            ConversionRequest conversion = request.scale == null
+                    ? new ConversionRequest(request.unitFrom, request.unitTo, val)
+                    : new ConversionRequest(request.unitFrom, request.unitTo, val, request.scale);
+            JsonWriter.writeResult(UnitConverter.convertResult(conversion), out);
+            return;
+        }
+        JSONObject ret = new JSONObject();
+        if (request.unitFrom != null) {
+            ret.put("unit_from", request.unitFrom);
+        }
+        if (request.unitTo != null) {
+            ret.put("unit_to", request.unitTo);
+        }
+        if (request.valueFrom != null) {
+            ret.put("value_from", request.valueFrom);
+        }
+        ret.put("status", "1");
+        ret.put("message", request.invalid ? "invalid request" : "invalid value");
+        ret.writeJSONString(out);
+    }
+
+    /**
+     * One conversion request read from the input.
+     */
+    static final class Request {
+
+        String unitFrom;
+        String unitTo;
+        String valueFrom;
+        Integer scale;
+        boolean invalid;
+
+        void set(String key, Object value) {
+            if (value == null) {
+                return;
+            }
+            switch (key) {
+                case "unit_from":
+                    unitFrom = value.toString();
+                    break;
+                case "unit_to":
+                    unitTo = value.toString();
+                    break;
+                case "value_from":
+                    valueFrom = value.toString();
+                    break;
+                case "scale":
+                    try {
+                        scale = Integer.valueOf(value.toString());
+                    } catch (NumberFormatException ex) {
+                        invalid = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Minimal streaming JSON reader for the request objects. Numbers are kept
+     * as the text of the input, so a {@code value_from} given as a JSON number
+     * keeps its significant digits, and only one request is held in memory at
+     * a time.
+     */
+    static final class RequestReader {
+
+        private static final Object NESTED = new Object();
+        private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+        private final Reader in;
+        private int next = -2;
+        private long position;
+
+        RequestReader(Reader in) {
+            this.in = in;
+        }
+
+        int peek() throws IOException {
+            if (next == -2) {
+                next = in.read();
+            }
+            return next;
+        }
+
+        int read() throws IOException {
+            int ret = peek();
+            next = -2;
+            if (ret >= 0) {
+                position++;
+            }
+            return ret;
+        }
+
+        int skipWhitespace() throws IOException {
+            int c = peek();
+            while (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == 0xFEFF) {
+                read();
+                c = peek();
+            }
+            return c;
+        }
+
+        void expect(char ch) throws IOException {
+            skipWhitespace();
+            if (read() != ch) {
+                throw error("'" + ch + "'");
+            }
+        }
+
+        IOException error(String expected) {
+            return new IOException("Malformed JSON at position " + position + ", expected " + expected);
+        }
+
+        /**
+         * Read one element of the input. An element which is not an object
+         * gives an invalid request.
+         */
+        Request readElement() throws IOException {
+            Request ret = new Request();
+            if (skipWhitespace() != '{') {
+                readValue();
+                ret.invalid = true;
+                return ret;
+            }
+            read();
+            if (skipWhitespace() == '}') {
+                read();
+                return ret;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("a key");
+                }
+                read();
+                String key = readString();
+                expect(':');
+                Object value = readValue();
+                if (value instanceof String) {
+                    ret.set(key, value);
+                }
+                int c = skipWhitespace();
+                read();
+                if (c == '}') {
+                    return ret;
+                } else if (c != ',') {
+                    throw error("',' or '}'");
+                }
+            }
+        }
+
+        /**
+         * @return the text of a string, number or boolean, null for a JSON
+         * null, or NESTED for an object or array, which is skipped
+         */
+        private Object readValue() throws IOException {
+            int c = skipWhitespace();
+            if (c == '"') {
+                read();
+                return readString();
+            } else if (c == '{' || c == '[') {
+                skipNested();
+                return NESTED;
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                return readNumber();
+            } else if (c == 't') {
+                readLiteral("true");
+                return "true";
+            } else if (c == 'f') {
+                readLiteral("false");
+                return "false";
+            } else if (c == 'n') {
+                readLiteral("null");
+                return null;
+            }
+            throw error("a value");
+        }
+
+        private void readLiteral(String literal) throws IOException {
+            for (int i = 0; i < literal.length(); i++) {
+                if (read() != literal.charAt(i)) {
+                    throw error(literal);
+                }
+            }
+        }
+
+        private String readNumber() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int c = peek();
+            while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+                sb.append((char) read());
+                c = peek();
+            }
+            String ret = sb.toString();
+            if (!NUMBER.matcher(ret).matches()) {
+                throw error("a number");
+            }
+            return ret;
+        }
+
+        private String readString() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                int c = read();
+                if (c < 0) {
+                    throw error("'\"'");
+                } else if (c == '"') {
+                    return sb.toString();
+                } else if (c == '\\') {
+                    c = read();
+                    switch (c) {
+                        case '"':
+                        case '\\':
+                        case '/':
+                            sb.append((char) c);
+                            break;
+                        case 'b':
+                            sb.append('\b');
+                            break;
+                        case 'f':
+                            sb.append('\f');
+                            break;
+                        case 'n':
+                            sb.append('\n');
+                            break;
+                        case 'r':
+                            sb.append('\r');
+                            break;
+                        case 't':
+                            sb.append('\t');
+                            break;
+                        case 'u':
+                            char[] hex = new char[4];
+                            for (int i = 0; i < 4; i++) {
+                                int h = read();
+                                if (Character.digit(h, 16) < 0) {
+                                    throw error("a hex digit");
+                                }
+                                hex[i] = (char) h;
+                            }
+                            sb.append((char) Integer.parseInt(new String(hex), 16));
+                            break;
+                        default:
+                            throw error("an escape");
+                    }
+                } else {
+                    sb.append((char) c);
+                }
+            }
+        }
+
+        private void skipNested() throws IOException {
+            int depth = 0;
+            do {
+                int c = read();
+                if (c < 0) {
+                    throw error("the end of the value");
+                } else if (c == '"') {
+                    readString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.agmip.tools.unithelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded, thread-safe cache used to keep parsed units and resolved
+ * converters between calls. Lookups are a {@link ConcurrentHashMap} read
+ * without locking, so threads sharing a few hot keys do not wait for each
+ * other. The LRU order is approximate: each entry is stamped with the number
+ * of insertions seen when it was last used, and an insertion beyond the
+ * capacity evicts the least recently stamped of a small sample of entries.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+final class BoundedCache<K, V> {
+
+    private static final int SAMPLE_SIZE = 8;
+
+    private final ConcurrentHashMap<K, Node<V>> map = new ConcurrentHashMap();
+    private final AtomicLong tick = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final Object evictLock = new Object();
+    private Iterator<Map.Entry<K, Node<V>>> hand;
+    private volatile int capacity;
+
+    BoundedCache(int capacity) {
+        checkCapacity(capacity);
+        this.capacity = capacity;
+    }
+
+    private static void checkCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Cache capacity must not be negative: " + capacity);
+        }
+    }
+
+    V get(K key) {
+        Node<V> node = map.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        long now = tick.get();
+        // Only the first hit after an insertion writes, hot entries stay shared
+        if (node.stamp != now) {
+            node.stamp = now;
+        }
+        return node.value;
+    }
+
+    void put(K key, V value) {
+        if (capacity == 0) {
+            return;
+        }
+        map.put(key, new Node(value, tick.getAndIncrement()));
+        if (map.size() > capacity) {
+            synchronized (evictLock) {
+                while (map.size() > capacity && evictOne()) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the least recently used entry of a sample, taken from where the
+     * last sample ended so that all entries are visited in turn.
+     *
+     * @return false if the cache is empty
+     */
+    private boolean evictOne() {
+        K victim = null;
+        Node<V> victimNode = null;
+        boolean restarted = false;
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            if (hand == null || !hand.hasNext()) {
+                if (restarted) {
+                    break;
+                }
+                hand = map.entrySet().iterator();
+                restarted = true;
+                if (!hand.hasNext()) {
+                    break;
+                }
+            }
+            Map.Entry<K, Node<V>> entry = hand.next();
+            if (victimNode == null || entry.getValue().stamp < victimNode.stamp) {
+                victim = entry.getKey();
+                victimNode = entry.getValue();
+            }
+        }
+        if (victim == null) {
+            return false;
+        }
+        if (map.remove(victim, victimNode)) {
+            evictions.increment();
+        }
+        return true;
+    }
+
+    /**
+     * @return a copy of the cached entries, without changing the LRU order
+     */
+    Map<K, V> entries() {
+        HashMap<K, V> ret = new HashMap();
+        for (Map.Entry<K, Node<V>> entry : map.entrySet()) {
+            ret.put(entry.getKey(), entry.getValue().value);
+        }
+        return ret;
+    }
+
+    void clear() {
+        map.clear();
+    }
+
+    /**
+     * Change the capacity, evicting the least recently used entries exactly
+     * when the cache shrinks.
+     */
+    void setCapacity(int capacity) {
+        checkCapacity(capacity);
+        synchronized (evictLock) {
+            this.capacity = capacity;
+            int excess = map.size() - capacity;
+            if (excess <= 0) {
+                return;
+            }
+            List<Map.Entry<K, Node<V>>> entries = new ArrayList(map.entrySet());
+            Collections.sort(entries, (a, b) -> Long.compare(a.getValue().stamp, b.getValue().stamp));
+            for (int i = 0; i < excess && i < entries.size(); i++) {
+                if (map.remove(entries.get(i).getKey(), entries.get(i).getValue())) {
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), map.size(), capacity);
+    }
+
+    private static final class Node<V> {
+
+        final V value;
+        volatile long stamp;
+
+        Node(V value, long stamp) {
+            this.value = value;
+            this.stamp = stamp;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.agmip.tools.unithelper;
+
+import java.lang.reflect.Constructor;
+import java.util.Objects;
+
+/**
+ * Type and message of a failure which is remembered between calls. Each call
+ * gets a new exception, so callers never share an exception instance with its
+ * stack trace and suppressed exceptions.
+ *
+ * <p>The new exception is of the original type when its message constructor
+ * gives back the same message. Otherwise it is of the nearest super type
+ * which does, for example a {@code SpecificationException} for a
+ * {@code NoSuchUnitException}, whose constructor takes the unit name instead
+ * of the message.</p>
+ */
+final class CachedFailure {
+
+    private final String message;
+    private final Constructor<? extends Exception> constructor;
+
+    CachedFailure(Exception ex) {
+        this.message = ex.getMessage();
+        this.constructor = findConstructor(ex.getClass(), message);
+    }
+
+    private static Constructor<? extends Exception> findConstructor(Class<? extends Exception> type, String message) {
+        for (Class<?> cls = type; cls != Exception.class; cls = cls.getSuperclass()) {
+            try {
+                Constructor<? extends Exception> ret = (Constructor<? extends Exception>) cls.getConstructor(String.class);
+                if (Objects.equals(ret.newInstance(message).getMessage(), message)) {
+                    return ret;
+                }
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                // No usable message constructor, try the super type
+            }
+        }
+        return null;
+    }
+
+    String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return a new exception with the remembered message, or a plain
+     * {@link Exception} if no type in the hierarchy can be recreated
+     */
+    Exception newException() {
+        if (constructor != null) {
+            try {
+                return constructor.newInstance(message);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                // Worked when the failure was remembered, fall through
+            }
+        }
+        return new Exception(message);
+    }
+}
@@ -0,0 +1,369 @@
+package org.agmip.tools.unithelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import ucar.units.BaseUnit;
+import ucar.units.NameException;
+import ucar.units.NoSuchUnitException;
+import ucar.units.SI;
+import ucar.units.StandardUnitDB;
+import ucar.units.Unit;
+import ucar.units.UnitDB;
+import ucar.units.UnitDBAccessException;
+import ucar.units.UnitDBException;
+import ucar.units.UnitDBImpl;
+import ucar.units.UnitDBManager;
+import ucar.units.UnitExistsException;
+import ucar.units.UnitFormat;
+import ucar.units.UnitFormatManager;
+import ucar.units.UnitName;
+
+/**
+ * Compact snapshot of the UDUnits unit catalog. Loading it avoids reading the
+ * UDUnits unit XML files when the {@link UnitConverter} is first used, which
+ * shortens the start of short lived processes.
+ *
+ * <p>The snapshot holds our own data, not serialized UDUnits objects: every
+ * unit of the standard database with its name, plural, symbol and canonical
+ * specification in SI base units. On loading, the units are parsed back from
+ * their specifications through the public UDUnits API. Units whose
+ * specification does not convert exactly like the original are left out
+ * when the snapshot is written. The prefixes are still read by UDUnits, since
+ * their alternate symbols can not be listed through its API.</p>
+ *
+ * <p>The alternate spellings of the units can not be listed either. A unit
+ * expression which does not parse with the snapshot is therefore parsed
+ * again with the standard database, see {@link #parseStandard(String)},
+ * which is only built at that point. The AgMIP aliases are not part of the
+ * snapshot, they are added after loading as usual.</p>
+ *
+ * <p>The snapshot is enabled with the system property {@value #PROPERTY},
+ * set to a file path or a classpath resource name, and generated with
+ * {@code java org.agmip.tools.unithelper.CatalogSnapshot <file>}. A snapshot
+ * which can not be read, was written with another UDUnits version or does
+ * not resolve the standard units is ignored and the standard database is
+ * used instead.</p>
+ */
+public final class CatalogSnapshot {
+
+    public static final String PROPERTY = "unithelper.catalog.snapshot";
+    static final int MAGIC = 0x55484353;
+    static final int VERSION = 2;
+    private static final String[] REQUIRED_UNITS = {"foot", "gram", "count", "day", "degree"};
+    private static final double[] CHECK_POINTS = {-40.0, 0.5, 1.0, 37.0, 1.0E6};
+    private static final double TOLERANCE = 1.0E-12;
+    private static SnapshotUnitDB loaded;
+
+    private CatalogSnapshot() {
+    }
+
+    /**
+     * Install the snapshot database into the UDUnits manager if the snapshot
+     * is enabled. Only the first call has an effect.
+     *
+     * @return true if the snapshot database is in use
+     */
+    static synchronized boolean loadIfEnabled() {
+        if (loaded != null) {
+            return true;
+        }
+        String location = System.getProperty(PROPERTY);
+        if (location == null || location.isEmpty()) {
+            return false;
+        }
+        try (InputStream in = open(location)) {
+            if (in == null) {
+                System.err.println("Unit catalog snapshot " + location + " not found");
+                return false;
+            }
+            SnapshotUnitDB db = read(in);
+            UnitDBManager.setInstance(db);
+            loaded = db;
+            return true;
+        } catch (IOException ex) {
+            System.err.println("Failed to load unit catalog snapshot " + location + ": " + ex.getMessage());
+            return false;
+        }
+    }
+
+    private static InputStream open(String location) throws IOException {
+        Path file = Paths.get(location);
+        if (Files.isRegularFile(file)) {
+            return Files.newInputStream(file);
+        }
+        return CatalogSnapshot.class.getResourceAsStream(location.startsWith("/") ? location : "/" + location);
+    }
+
+    /**
+     * Parse a unit expression with the standard database, when the snapshot
+     * is in use and could not parse it. The standard database is built on
+     * the first call and gets the aliases added to the snapshot database.
+     *
+     * @param unitStr The unit expression
+     * @return the parsed unit, or null if the snapshot is not in use or the
+     * expression is not valid with the standard database either
+     */
+    static Unit parseStandard(String unitStr) {
+        SnapshotUnitDB db;
+        synchronized (CatalogSnapshot.class) {
+            db = loaded;
+        }
+        if (db == null) {
+            return null;
+        }
+        try {
+            return UnitFormatManager.instance().parse(unitStr, db.standard());
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Read a snapshot and build its unit database.
+     *
+     * @param in The snapshot content
+     * @return The unit database
+     * @throws IOException if the snapshot can not be read or is not usable
+     */
+    static SnapshotUnitDB read(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(new GZIPInputStream(new BufferedInputStream(in)));
+        if (dis.readInt() != MAGIC) {
+            throw new IOException("Not a unit catalog snapshot");
+        }
+        int version = dis.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        String udunits = dis.readUTF();
+        if (!udunits.equals(udunitsVersion())) {
+            throw new IOException("Snapshot of UDUnits " + udunits + ", running " + udunitsVersion());
+        }
+        int count = dis.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid unit count " + count);
+        }
+        try {
+            SnapshotUnitDB ret = new SnapshotUnitDB();
+            Map<String, BaseUnit> baseUnits = baseUnits();
+            for (BaseUnit unit : baseUnits.values()) {
+                ret.addUnit(unit);
+            }
+            UnitFormat format = UnitFormatManager.instance();
+            for (int i = 0; i < count; i++) {
+                String name = dis.readUTF();
+                String plural = dis.readUTF();
+                String symbol = dis.readUTF();
+                String spec = dis.readUTF();
+                if (baseUnits.containsKey(name)) {
+                    continue;
+                }
+                Unit unit = format.parse(spec, ret);
+                ret.addUnit(unit.clone(UnitName.newUnitName(name, emptyToNull(plural), emptyToNull(symbol))));
+            }
+            verify(ret);
+            return ret;
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException("Invalid snapshot content: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static String emptyToNull(String str) {
+        return str.isEmpty() ? null : str;
+    }
+
+    private static String nullToEmpty(String str) {
+        return str == null ? "" : str;
+    }
+
+    /**
+     * @return the SI base units by name, in which the canonical
+     * specifications are written
+     */
+    private static Map<String, BaseUnit> baseUnits() {
+        Map<String, BaseUnit> ret = new LinkedHashMap();
+        for (BaseUnit unit : new BaseUnit[]{SI.AMPERE, SI.CANDELA, SI.KELVIN, SI.KILOGRAM,
+            SI.METER, SI.MOLE, SI.SECOND, SI.RADIAN, SI.STERADIAN}) {
+            ret.put(unit.getName(), unit);
+        }
+        return ret;
+    }
+
+    private static String udunitsVersion() {
+        String ret = UnitDB.class.getPackage().getImplementationVersion();
+        return ret == null ? "" : ret;
+    }
+
+    /**
+     * Check that the rebuilt database has the units the library relies on
+     * and converts like the standard one.
+     */
+    private static void verify(UnitDB db) throws IOException {
+        try {
+            for (String name : REQUIRED_UNITS) {
+                if (db.getByName(name) == null) {
+                    throw new IOException("Snapshot does not have the unit " + name);
+                }
+            }
+            if (Math.abs(db.getByName("foot").getConverterTo(SI.METER).convert(1.0) - 0.3048) > 1e-12
+                    || Math.abs(db.getByName("gram").getConverterTo(SI.KILOGRAM).convert(1.0) - 0.001) > 1e-15) {
+                throw new IOException("Snapshot does not resolve the standard units");
+            }
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException("Snapshot does not resolve the standard units", ex);
+        }
+    }
+
+    /**
+     * Write the units of the standard UDUnits database as a snapshot.
+     *
+     * @param out The destination of the snapshot
+     * @return the number of units written
+     * @throws IOException if the snapshot can not be written
+     * @throws UnitDBException if the standard database can not be built
+     */
+    public static int write(OutputStream out) throws IOException, UnitDBException {
+        UnitDB standard = StandardUnitDB.instance();
+        Map<String, BaseUnit> baseUnits = baseUnits();
+        List<Unit> units = new ArrayList();
+        SnapshotUnitDB check = new SnapshotUnitDB();
+        try {
+            for (BaseUnit unit : baseUnits.values()) {
+                check.addUnit(unit);
+            }
+        } catch (UnitExistsException | NameException ex) {
+            throw new UnitDBAccessException(ex.getMessage());
+        }
+        UnitFormat format = UnitFormatManager.instance();
+        Iterator it = standard.getIterator();
+        while (it.hasNext()) {
+            Unit unit = (Unit) it.next();
+            if (unit.getName() == null) {
+                continue;
+            }
+            try {
+                if (baseUnits.containsKey(unit.getName())
+                        || sameConversion(unit, format.parse(unit.getCanonicalString(), check))) {
+                    units.add(unit);
+                }
+            } catch (Exception ex) {
+                // Left out, resolved by the standard database when used
+            }
+        }
+
+        GZIPOutputStream gzip = new GZIPOutputStream(new BufferedOutputStream(out));
+        DataOutputStream dos = new DataOutputStream(gzip);
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeUTF(udunitsVersion());
+        dos.writeInt(units.size());
+        for (Unit unit : units) {
+            dos.writeUTF(unit.getName());
+            dos.writeUTF(nullToEmpty(unit.getPlural()));
+            dos.writeUTF(nullToEmpty(unit.getSymbol()));
+            dos.writeUTF(unit.getCanonicalString());
+        }
+        dos.flush();
+        gzip.finish();
+        gzip.flush();
+        return units.size();
+    }
+
+    /**
+     * @return true if the rebuilt unit converts to the derived unit of the
+     * original the same way as the original
+     */
+    private static boolean sameConversion(Unit original, Unit rebuilt) {
+        try {
+            if (!original.isCompatible(rebuilt)) {
+                return false;
+            }
+            double[] expected = original.convertTo(CHECK_POINTS.clone(), original.getDerivedUnit());
+            double[] actual = rebuilt.convertTo(CHECK_POINTS.clone(), original.getDerivedUnit());
+            for (int i = 0; i < expected.length; i++) {
+                if (Math.abs(expected[i] - actual[i]) > TOLERANCE * Math.max(1.0, Math.abs(expected[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Unit database rebuilt from a snapshot. It remembers the aliases added
+     * to it, so that the standard database gets them too once it is built.
+     */
+    static final class SnapshotUnitDB extends UnitDBImpl {
+
+        private final Map<String, String> aliases = new LinkedHashMap();
+        private UnitDB standard;
+
+        SnapshotUnitDB() {
+            super(512, 256);
+        }
+
+        @Override
+        public synchronized void addAlias(String alias, String name)
+                throws NoSuchUnitException, UnitExistsException, UnitDBAccessException, NameException {
+            super.addAlias(alias, name);
+            aliases.put(alias, name);
+            if (standard != null) {
+                standard.addAlias(alias, name);
+            }
+        }
+
+        synchronized UnitDB standard() throws UnitDBException {
+            if (standard == null) {
+                UnitDB ret = StandardUnitDB.instance();
+                for (Map.Entry<String, String> alias : aliases.entrySet()) {
+                    try {
+                        ret.addAlias(alias.getKey(), alias.getValue());
+                    } catch (UnitExistsException ex) {
+                        // Already added by an earlier snapshot database
+                    } catch (NoSuchUnitException | NameException ex) {
+                        UnitConverter.reportInitError("alias", ex);
+                    }
+                }
+                standard = ret;
+            }
+            return standard;
+        }
+    }
+
+    /**
+     * Generate the snapshot file.
+     *
+     * @param args The path of the snapshot file
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: java " + CatalogSnapshot.class.getName() + " <snapshot file>");
+            System.exit(1);
+        }
+        int count;
+        try (OutputStream out = Files.newOutputStream(Paths.get(args[0]))) {
+            count = write(out);
+        }
+        System.out.printf("%d units, %d bytes%n", count, Files.size(Paths.get(args[0])));
+    }
+}
@@ -0,0 +1,541 @@
+package org.agmip.tools.unithelper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import ucar.units.ConversionException;
+import ucar.units.NoSuchUnitException;
+import ucar.units.PrefixDBException;
+import ucar.units.SpecificationException;
+import ucar.units.UnitDBException;
+import ucar.units.UnitParseException;
+import ucar.units.UnitSystemException;
+
+/**
+ * Column based unit conversion for text data files, such as ICASA or DSSAT
+ * weather and soil files. The input file is memory mapped and processed line
+ * by line; numbers are parsed directly from the mapped bytes, converted with a
+ * {@link ConversionPlan} per column and written through a buffered channel.
+ * Converted values keep the significant digits of the original value, the same
+ * as {@link UnitConverter#convert(String, String, String)}.
+ *
+ * <p>The unit of a column is given with {@link #setSourceUnit(int, String)} or
+ * read from a header line set with {@link #setUnitLine(int)}. Only the columns
+ * with a target unit are rewritten, any other byte is copied unchanged. Quoted
+ * fields are not supported in delimited files.</p>
+ */
+public final class ColumnFileConverter {
+
+    private static final long DEFAULT_WINDOW = 64L * 1024 * 1024;
+    private static final int OUTPUT_BUFFER = 64 * 1024;
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static enum Layout {
+        DELIMITED, WHITESPACE, FIXED_WIDTH
+    }
+
+    private final Layout layout;
+    private final byte delimiter;
+    private final int[] widths;
+    private final HashMap<Integer, String> sourceUnits = new HashMap();
+    private final HashMap<Integer, String> targetUnits = new HashMap();
+    private final List<byte[]> missingValues = new ArrayList();
+    private int headerLines;
+    private int unitLine = -1;
+    private String commentPrefixes = "";
+    private long window = DEFAULT_WINDOW;
+
+    private ColumnFileConverter(Layout layout, byte delimiter, int[] widths) {
+        this.layout = layout;
+        this.delimiter = delimiter;
+        this.widths = widths;
+    }
+
+    /**
+     * @param delimiter The ASCII character separating the columns
+     * @return A converter for files with delimited columns, e.g. CSV
+     */
+    public static ColumnFileConverter delimited(char delimiter) {
+        if (delimiter > 127) {
+            throw new IllegalArgumentException("Delimiter must be an ASCII character: " + delimiter);
+        }
+        return new ColumnFileConverter(Layout.DELIMITED, (byte) delimiter, null);
+    }
+
+    /**
+     * @return A converter for files whose columns are separated by runs of
+     * spaces or tabs, such as DSSAT files. Converted values are right aligned
+     * in the width of the original field.
+     */
+    public static ColumnFileConverter whitespaceDelimited() {
+        return new ColumnFileConverter(Layout.WHITESPACE, (byte) ' ', null);
+    }
+
+    /**
+     * @param widths The width of each column in bytes
+     * @return A converter for fixed width files. Converted values are right
+     * aligned in the column.
+     */
+    public static ColumnFileConverter fixedWidth(int... widths) {
+        for (int width : widths) {
+            if (width <= 0) {
+                throw new IllegalArgumentException("Column width must be positive: " + width);
+            }
+        }
+        return new ColumnFileConverter(Layout.FIXED_WIDTH, (byte) ' ', widths.clone());
+    }
+
+    /**
+     * @param headerLines The number of lines at the start of the file which
+     * are copied without conversion
+     */
+    public void setHeaderLines(int headerLines) {
+        this.headerLines = headerLines;
+    }
+
+    /**
+     * @param prefixes The characters which mark a line to be copied without
+     * conversion when they start the line, e.g. "!*@$" for DSSAT files
+     */
+    public void setCommentPrefixes(String prefixes) {
+        this.commentPrefixes = prefixes == null ? "" : prefixes;
+    }
+
+    /**
+     * Read the units of the columns from a header line. The line is split in
+     * the same way as the data lines; units set with
+     * {@link #setSourceUnit(int, String)} take precedence.
+     *
+     * @param lineIndex The zero based index of the line holding the units
+     */
+    public void setUnitLine(int lineIndex) {
+        this.unitLine = lineIndex;
+    }
+
+    /**
+     * @param column The zero based column index
+     * @param unit The unit of the values in the column, ICASA comments
+     * allowed, e.g. {@code kg[N]/ha}
+     */
+    public void setSourceUnit(int column, String unit) {
+        sourceUnits.put(column, unit);
+    }
+
+    /**
+     * @param column The zero based column index
+     * @param unit The unit the values of the column are converted to
+     */
+    public void setTargetUnit(int column, String unit) {
+        targetUnits.put(column, unit);
+    }
+
+    /**
+     * @param values Cell values which are copied without conversion, such as
+     * the DSSAT missing value "-99"
+     */
+    public void setMissingValues(String... values) {
+        missingValues.clear();
+        for (String value : values) {
+            missingValues.add(value.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * @param bytes The size of the region of the input file mapped at once;
+     * a line must not be longer than this
+     */
+    void setWindow(long bytes) {
+        this.window = bytes;
+    }
+
+    /**
+     * Convert the input file and write the result to the output file.
+     *
+     * @param in The input data file
+     * @param out The output data file, replaced if it exists
+     * @return The number of converted cells
+     * @throws IOException if a file can not be read or written, a line is
+     * longer than the mapping window, a column has a target unit but no
+     * source unit, or a converted value is wider than its field in a fixed
+     * width or whitespace delimited file; the output file is incomplete in
+     * that case
+     */
+    public long convert(Path in, Path out) throws IOException, UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        try (FileChannel inCh = FileChannel.open(in, StandardOpenOption.READ);
+                FileChannel outCh = FileChannel.open(out, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Run run = new Run(outCh);
+            long size = inCh.size();
+            long pos = 0;
+            while (pos < size) {
+                long len = Math.min(window, size - pos);
+                MappedByteBuffer map = inCh.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                int end = (int) len;
+                if (pos + len < size) {
+                    end = lastLineEnd(map, end);
+                    if (end == 0) {
+                        throw new IOException("Line longer than " + window + " bytes at offset " + pos);
+                    }
+                }
+                run.processLines(map, end);
+                pos += end;
+            }
+            run.flush();
+            return run.cells;
+        }
+    }
+
+    private static int lastLineEnd(ByteBuffer buf, int limit) {
+        for (int i = limit - 1; i >= 0; i--) {
+            if (buf.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * State of one conversion run.
+     */
+    private final class Run {
+
+        private final FileChannel outCh;
+        private final ByteBuffer outBuf = ByteBuffer.allocate(OUTPUT_BUFFER);
+        private final StringBuilder text = new StringBuilder(32);
+        private final int[] field = new int[4];
+        private ByteBuffer view;
+        private final HashMap<Integer, String> units = new HashMap(sourceUnits);
+        private ConversionPlan[] plans;
+        private long lineNo;
+        private long cells;
+        private double parsedValue;
+        private int parsedPrecision;
+
+        Run(FileChannel outCh) {
+            this.outCh = outCh;
+        }
+
+        void processLines(ByteBuffer buf, int limit) throws IOException, UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+            view = buf.duplicate();
+            int start = 0;
+            while (start < limit) {
+                int nl = start;
+                while (nl < limit && buf.get(nl) != '\n') {
+                    nl++;
+                }
+                int end = nl;
+                if (end > start && buf.get(end - 1) == '\r') {
+                    end--;
+                }
+                int next = nl < limit ? nl + 1 : limit;
+                if (lineNo == unitLine) {
+                    readUnits(buf, start, end);
+                }
+                if (lineNo < headerLines || lineNo == unitLine || start == end
+                        || commentPrefixes.indexOf((char) (buf.get(start) & 0xFF)) >= 0) {
+                    copy(buf, start, next);
+                } else {
+                    if (plans == null) {
+                        plans = compilePlans();
+                    }
+                    processLine(buf, start, end);
+                    copy(buf, end, next);
+                }
+                lineNo++;
+                start = next;
+            }
+        }
+
+        private void readUnits(ByteBuffer buf, int start, int end) {
+            int col = 0;
+            int pos = start;
+            while (nextField(buf, pos, end, col)) {
+                if (!units.containsKey(col) && field[2] > field[1]) {
+                    byte[] bytes = new byte[field[2] - field[1]];
+                    for (int i = 0; i < bytes.length; i++) {
+                        bytes[i] = buf.get(field[1] + i);
+                    }
+                    units.put(col, new String(bytes, StandardCharsets.UTF_8));
+                }
+                pos = field[3];
+                col++;
+            }
+        }
+
+        private ConversionPlan[] compilePlans() throws IOException, UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+            int size = 0;
+            for (Integer col : targetUnits.keySet()) {
+                size = Math.max(size, col + 1);
+            }
+            ConversionPlan[] ret = new ConversionPlan[size];
+            for (Integer col : targetUnits.keySet()) {
+                String from = units.get(col);
+                if (from == null) {
+                    throw new IOException("No source unit for column " + col);
+                }
+                ret[col] = UnitConverter.compile(from, targetUnits.get(col));
+            }
+            return ret;
+        }
+
+        private void processLine(ByteBuffer buf, int start, int end) throws IOException {
+            int col = 0;
+            int pos = start;
+            int copied = start;
+            while (col < plans.length && nextField(buf, pos, end, col)) {
+                ConversionPlan plan = plans[col];
+                if (plan != null && !isMissing(buf, field[1], field[2]) && parseNumber(buf, field[1], field[2])) {
+                    copy(buf, copied, field[0]);
+                    text.setLength(0);
+                    plan.appendSignificant(parsedValue, parsedPrecision, text);
+                    writeField(buf, col);
+                    copied = field[2];
+                    cells++;
+                }
+                pos = field[3];
+                col++;
+            }
+            copy(buf, copied, end);
+        }
+
+        /**
+         * Locate the next field of the line and store {fieldStart, tokenStart,
+         * tokenEnd, nextPosition} in {@link #field}.
+         *
+         * @return false when there are no more fields in the line
+         */
+        private boolean nextField(ByteBuffer buf, int pos, int end, int col) {
+            switch (layout) {
+                case DELIMITED: {
+                    if (pos > end || (pos == end && col > 0 && buf.get(pos - 1) != delimiter)) {
+                        return false;
+                    }
+                    int fe = pos;
+                    while (fe < end && buf.get(fe) != delimiter) {
+                        fe++;
+                    }
+                    int ts = pos;
+                    while (ts < fe && isBlank(buf.get(ts))) {
+                        ts++;
+                    }
+                    int te = fe;
+                    while (te > ts && isBlank(buf.get(te - 1))) {
+                        te--;
+                    }
+                    return setField(pos, ts, te, fe + 1);
+                }
+                case WHITESPACE: {
+                    int ts = pos;
+                    while (ts < end && isBlank(buf.get(ts))) {
+                        ts++;
+                    }
+                    if (ts >= end) {
+                        return false;
+                    }
+                    int te = ts;
+                    while (te < end && !isBlank(buf.get(te))) {
+                        te++;
+                    }
+                    return setField(pos, ts, te, te);
+                }
+                default: {
+                    if (col >= widths.length || pos >= end) {
+                        return false;
+                    }
+                    int fe = (int) Math.min((long) pos + widths[col], end);
+                    int ts = pos;
+                    while (ts < fe && isBlank(buf.get(ts))) {
+                        ts++;
+                    }
+                    int te = fe;
+                    while (te > ts && isBlank(buf.get(te - 1))) {
+                        te--;
+                    }
+                    return setField(pos, ts, te, fe);
+                }
+            }
+        }
+
+        private boolean setField(int fieldStart, int tokenStart, int tokenEnd, int next) {
+            field[0] = fieldStart;
+            field[1] = tokenStart;
+            field[2] = tokenEnd;
+            field[3] = next;
+            return true;
+        }
+
+        /**
+         * Write the converted text in place of the field. In fixed width and
+         * whitespace delimited files the text has to fit the original field,
+         * otherwise the following columns would be shifted.
+         */
+        private void writeField(ByteBuffer buf, int col) throws IOException {
+            if (layout == Layout.DELIMITED) {
+                copy(buf, field[0], field[1]);
+                writeText();
+                return;
+            }
+            int width = field[2] - field[0];
+            int minPad = layout == Layout.WHITESPACE && field[1] > field[0] ? 1 : 0;
+            int pad = width - text.length();
+            if (pad < minPad) {
+                throw new IOException("Converted value " + text + " does not fit the " + (width - minPad)
+                        + " characters of column " + col + " at line " + (lineNo + 1));
+            }
+            ensure(pad);
+            for (int i = 0; i < pad; i++) {
+                outBuf.put((byte) ' ');
+            }
+            writeText();
+        }
+
+        private void writeText() throws IOException {
+            ensure(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                outBuf.put((byte) text.charAt(i));
+            }
+        }
+
+        private boolean isMissing(ByteBuffer buf, int start, int end) {
+            outer:
+            for (byte[] missing : missingValues) {
+                if (missing.length != end - start) {
+                    continue;
+                }
+                for (int i = 0; i < missing.length; i++) {
+                    if (buf.get(start + i) != missing[i]) {
+                        continue outer;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Parse a decimal number and its number of significant digits. Numbers
+         * with at most 15 significant digits and a small exponent are parsed
+         * exactly without allocation, others through Double.parseDouble.
+         *
+         * @return false if the token is not a number
+         */
+        private boolean parseNumber(ByteBuffer buf, int start, int end) {
+            int i = start;
+            boolean negative = false;
+            if (i < end && (buf.get(i) == '-' || buf.get(i) == '+')) {
+                negative = buf.get(i) == '-';
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int significant = 0;
+            int fraction = 0;
+            boolean dot = false;
+            boolean overflow = false;
+            for (; i < end; i++) {
+                byte b = buf.get(i);
+                if (b >= '0' && b <= '9') {
+                    digits++;
+                    if (dot) {
+                        fraction++;
+                    }
+                    if (significant > 0 || b != '0') {
+                        significant++;
+                        if (significant > 18) {
+                            overflow = true;
+                        } else {
+                            mantissa = mantissa * 10 + (b - '0');
+                        }
+                    }
+                } else if (b == '.' && !dot) {
+                    dot = true;
+                } else {
+                    break;
+                }
+            }
+            if (digits == 0) {
+                return false;
+            }
+            int exponent = 0;
+            if (i < end && (buf.get(i) == 'e' || buf.get(i) == 'E')) {
+                i++;
+                boolean negExp = false;
+                if (i < end && (buf.get(i) == '-' || buf.get(i) == '+')) {
+                    negExp = buf.get(i) == '-';
+                    i++;
+                }
+                int expDigits = 0;
+                for (; i < end && buf.get(i) >= '0' && buf.get(i) <= '9'; i++) {
+                    if (exponent < 100000) {
+                        exponent = exponent * 10 + (buf.get(i) - '0');
+                    }
+                    expDigits++;
+                }
+                if (expDigits == 0) {
+                    return false;
+                }
+                if (negExp) {
+                    exponent = -exponent;
+                }
+            }
+            if (i != end) {
+                return false;
+            }
+            parsedPrecision = Math.max(1, significant);
+            int scale = fraction - exponent;
+            if (!overflow && significant <= 15 && scale >= -22 && scale <= 22) {
+                double val = scale >= 0 ? mantissa / POW10[scale] : mantissa * POW10[-scale];
+                parsedValue = negative ? -val : val;
+            } else {
+                byte[] bytes = new byte[end - start];
+                for (int k = 0; k < bytes.length; k++) {
+                    bytes[k] = buf.get(start + k);
+                }
+                parsedValue = Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+            }
+            return true;
+        }
+
+        private void copy(ByteBuffer buf, int start, int end) throws IOException {
+            int pos = start;
+            while (pos < end) {
+                if (!outBuf.hasRemaining()) {
+                    flush();
+                }
+                int len = Math.min(end - pos, outBuf.remaining());
+                view.limit(pos + len);
+                view.position(pos);
+                outBuf.put(view);
+                pos += len;
+            }
+        }
+
+        private void ensure(int size) throws IOException {
+            if (outBuf.remaining() < size) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            outBuf.flip();
+            while (outBuf.hasRemaining()) {
+                outCh.write(outBuf);
+            }
+            outBuf.clear();
+        }
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
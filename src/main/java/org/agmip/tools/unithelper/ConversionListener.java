@@ -0,0 +1,61 @@
+package org.agmip.tools.unithelper;
+
+/**
+ * Receives instrumentation events from {@link UnitConverter}, installed with
+ * {@link UnitConverter#setListener(ConversionListener)}. No events are
+ * created and no clock is read while no listener is installed.
+ *
+ * <p>The callbacks run on the calling thread inside the conversion, so they
+ * have to be cheap, thread-safe and must not throw.</p>
+ *
+ * @see ConversionMetrics
+ */
+public interface ConversionListener {
+
+    /**
+     * The instrumented public methods of {@link UnitConverter}; the overloads
+     * of a method share one entry.
+     */
+    public static enum Operation {
+        CONVERT,
+        CONVERT_JSON,
+        IS_VALID,
+        GET_DESCP,
+        GET_CATEGORY
+    }
+
+    /**
+     * Called when an instrumented method returns or throws.
+     *
+     * @param op The method called
+     * @param fromUnit The unit expression given to the method
+     * @param toUnit The target unit expression, null for methods which take a
+     * single unit
+     * @param nanos The time spent in the method
+     * @param failure The exception which failed the conversion, including the
+     * ones reported as status "1" by convertToJsonObj, or null on success
+     */
+    default void called(Operation op, String fromUnit, String toUnit, long nanos, Exception failure) {
+    }
+
+    /**
+     * Called when a unit expression had to be run through the UDUnits parser,
+     * which happens once per expression until it drops out of the caches.
+     *
+     * @param unitStr The unit expression as given by the caller
+     * @param result The result of the parse
+     * @param nanos The time spent in the parser
+     */
+    default void parsed(String unitStr, UnitLookup result, long nanos) {
+    }
+
+    /**
+     * Called when the unit or prefix database fails to initialize, in
+     * addition to the message printed to the standard error.
+     *
+     * @param stage The initialization step which failed
+     * @param failure The cause of the failure
+     */
+    default void initFailed(String stage, Exception failure) {
+    }
+}
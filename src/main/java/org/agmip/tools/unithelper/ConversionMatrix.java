@@ -0,0 +1,412 @@
+package org.agmip.tools.unithelper;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import org.agmip.tools.unithelper.UnitConverter.UNIT_TYPE;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import ucar.units.Unit;
+
+/**
+ * Precomputed conversion compatibility of a fixed unit vocabulary. The units
+ * are grouped by quantity dimension, and the scale and offset of every pair
+ * within a group is resolved when the matrix is built, so checking whether
+ * two units are convertible and getting their factors are map lookups.
+ *
+ * <p>Only pairs of the same dimension are indexed; the reciprocal conversions
+ * UDUnits also accepts, such as s to Hz, are reported as not convertible.
+ * Pairs which UDUnits converts with a non-affine function are convertible
+ * but have no factors. Once built, the matrix does not depend on the unit
+ * database and can be exported as JSON or as a compact binary table.</p>
+ */
+public final class ConversionMatrix {
+
+    static final int MAGIC = 0x55484d58;
+    static final int VERSION = 1;
+    private static final byte NONE = 0;
+    private static final byte LINEAR = 1;
+    private static final byte NON_LINEAR = 2;
+
+    private final List<String> units;
+    private final List<Group> groups;
+    private final HashMap<String, Integer> index = new HashMap();
+    private final int[] groupOf;
+    private final int[] posOf;
+
+    private ConversionMatrix(List<String> units, List<Group> groups) {
+        this.units = Collections.unmodifiableList(units);
+        this.groups = groups;
+        this.groupOf = new int[units.size()];
+        this.posOf = new int[units.size()];
+        for (int i = 0; i < units.size(); i++) {
+            // Expressions which normalize alike share the id of the first one
+            index.putIfAbsent(UnitConverter.preParsing(units.get(i)), i);
+        }
+        for (int g = 0; g < groups.size(); g++) {
+            int[] members = groups.get(g).members;
+            for (int pos = 0; pos < members.length; pos++) {
+                groupOf[members[pos]] = g;
+                posOf[members[pos]] = pos;
+            }
+        }
+    }
+
+    /**
+     * Build the matrix over the default vocabulary: the AgMIP unit aliases and
+     * the units of the catalog behind {@link UnitConverter#listUnit(UNIT_TYPE)},
+     * the latter named by their listing symbol.
+     */
+    public static ConversionMatrix build() {
+        LinkedHashMap<String, Unit> resolved = new LinkedHashMap();
+        for (String alias : UnitConverter.getAgmipAliases()) {
+            resolve(alias, resolved);
+        }
+        for (UNIT_TYPE type : UNIT_TYPE.values()) {
+            for (Unit unit : UnitConverter.listUnit(type)) {
+                String symbol = unit.getSymbol() == null ? unit.getName().replaceAll("\\s", "_") : unit.getSymbol();
+                if (!resolved.containsKey(symbol)) {
+                    resolved.put(symbol, unit);
+                }
+            }
+        }
+        return build(resolved);
+    }
+
+    /**
+     * Build the matrix over the given unit expressions. Expressions which do
+     * not resolve to a known unit are left out of the matrix.
+     *
+     * @param vocabulary The unit expressions, ICASA comments allowed
+     */
+    public static ConversionMatrix build(Collection<String> vocabulary) {
+        LinkedHashMap<String, Unit> resolved = new LinkedHashMap();
+        for (String unitStr : new LinkedHashSet<String>(vocabulary)) {
+            resolve(unitStr, resolved);
+        }
+        return build(resolved);
+    }
+
+    private static void resolve(String unitStr, Map<String, Unit> resolved) {
+        UnitLookup ret = UnitConverter.lookup(unitStr);
+        if (ret.getStatus() == UnitLookup.Status.VALID) {
+            resolved.put(unitStr, ret.getUnit());
+        }
+    }
+
+    private static ConversionMatrix build(LinkedHashMap<String, Unit> resolved) {
+        List<String> units = new ArrayList(resolved.keySet());
+        List<Unit> parsed = new ArrayList(resolved.values());
+        LinkedHashMap<String, List<Integer>> members = new LinkedHashMap();
+        for (int i = 0; i < units.size(); i++) {
+            String dimension = dimensionOf(parsed.get(i));
+            if (dimension == null) {
+                continue;
+            }
+            List<Integer> list = members.get(dimension);
+            if (list == null) {
+                list = new ArrayList();
+                members.put(dimension, list);
+            }
+            list.add(i);
+        }
+        // Units without a dimension are dropped, keep the ids dense
+        List<String> kept = new ArrayList();
+        int[] newId = new int[units.size()];
+        for (List<Integer> list : members.values()) {
+            for (int i = 0; i < list.size(); i++) {
+                newId[list.get(i)] = kept.size();
+                kept.add(units.get(list.get(i)));
+            }
+        }
+        List<Group> groups = new ArrayList();
+        for (Map.Entry<String, List<Integer>> entry : members.entrySet()) {
+            List<Integer> list = entry.getValue();
+            int n = list.size();
+            Group group = new Group(entry.getKey(), n);
+            for (int i = 0; i < n; i++) {
+                group.members[i] = newId[list.get(i)];
+            }
+            for (int i = 0; i < n; i++) {
+                Unit from = parsed.get(list.get(i));
+                for (int j = 0; j < n; j++) {
+                    group.set(i * n + j, from, parsed.get(list.get(j)));
+                }
+            }
+            groups.add(group);
+        }
+        return new ConversionMatrix(kept, groups);
+    }
+
+    private static String dimensionOf(Unit unit) {
+        try {
+            String ret = unit.getDerivedUnit().getQuantityDimension().toString();
+            return ret == null || ret.isEmpty() ? "unitless" : ret;
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the id of the unit, looked up by its normalized expression, or
+     * -1 if the unit is not in the matrix
+     */
+    private int idOf(String unit) {
+        if (unit == null) {
+            return -1;
+        }
+        Integer ret = index.get(UnitConverter.preParsing(unit));
+        return ret == null ? -1 : ret;
+    }
+
+    /**
+     * @return the slot of the pair in its group, or -1 if the units are not in
+     * the same group
+     */
+    private int slot(int from, int to) {
+        if (from < 0 || to < 0 || groupOf[from] != groupOf[to]) {
+            return -1;
+        }
+        return posOf[from] * groups.get(groupOf[from]).members.length + posOf[to];
+    }
+
+    /**
+     * @return the unit expressions of the matrix
+     */
+    public List<String> getUnits() {
+        return units;
+    }
+
+    public boolean contains(String unit) {
+        return idOf(unit) >= 0;
+    }
+
+    /**
+     * @return the quantity dimension of the unit, or null if the unit is not
+     * in the matrix
+     */
+    public String getDimension(String unit) {
+        int id = idOf(unit);
+        return id < 0 ? null : groups.get(groupOf[id]).dimension;
+    }
+
+    /**
+     * @return true if both units are in the matrix and values can be
+     * converted between them
+     */
+    public boolean areConvertible(String fromUnit, String toUnit) {
+        return kind(fromUnit, toUnit) != NONE;
+    }
+
+    /**
+     * @return true if the conversion is value * scale + offset
+     */
+    public boolean isLinear(String fromUnit, String toUnit) {
+        return kind(fromUnit, toUnit) == LINEAR;
+    }
+
+    private byte kind(String fromUnit, String toUnit) {
+        int from = idOf(fromUnit);
+        int slot = slot(from, idOf(toUnit));
+        return slot < 0 ? NONE : groups.get(groupOf[from]).kinds[slot];
+    }
+
+    /**
+     * @return the conversion factor, or NaN if the pair is not a linear
+     * conversion of the matrix
+     */
+    public double getScale(String fromUnit, String toUnit) {
+        int from = idOf(fromUnit);
+        int slot = slot(from, idOf(toUnit));
+        return slot < 0 ? Double.NaN : groups.get(groupOf[from]).scales[slot];
+    }
+
+    /**
+     * @return the conversion offset, or NaN if the pair is not a linear
+     * conversion of the matrix
+     */
+    public double getOffset(String fromUnit, String toUnit) {
+        int from = idOf(fromUnit);
+        int slot = slot(from, idOf(toUnit));
+        return slot < 0 ? Double.NaN : groups.get(groupOf[from]).offsets[slot];
+    }
+
+    /**
+     * Export the matrix as JSON: the list of units and, per dimension group,
+     * the member unit indexes with the square scale and offset tables, using
+     * null for pairs without factors.
+     */
+    public JSONObject toJsonObj() {
+        JSONObject ret = new JSONObject();
+        JSONArray unitArr = new JSONArray();
+        unitArr.addAll(units);
+        ret.put("units", unitArr);
+        JSONArray groupArr = new JSONArray();
+        for (Group group : groups) {
+            int n = group.members.length;
+            JSONObject data = new JSONObject();
+            data.put("dimension", group.dimension);
+            JSONArray memberArr = new JSONArray();
+            for (int member : group.members) {
+                memberArr.add(member);
+            }
+            data.put("units", memberArr);
+            JSONArray scaleRows = new JSONArray();
+            JSONArray offsetRows = new JSONArray();
+            for (int i = 0; i < n; i++) {
+                JSONArray scaleRow = new JSONArray();
+                JSONArray offsetRow = new JSONArray();
+                for (int j = 0; j < n; j++) {
+                    boolean linear = group.kinds[i * n + j] == LINEAR;
+                    scaleRow.add(linear ? group.scales[i * n + j] : null);
+                    offsetRow.add(linear ? group.offsets[i * n + j] : null);
+                }
+                scaleRows.add(scaleRow);
+                offsetRows.add(offsetRow);
+            }
+            data.put("scale", scaleRows);
+            data.put("offset", offsetRows);
+            groupArr.add(data);
+        }
+        ret.put("groups", groupArr);
+        return ret;
+    }
+
+    public String toJsonStr() {
+        return toJsonObj().toJSONString();
+    }
+
+    /**
+     * Write the matrix as a binary table: a header, the unit list, then per
+     * group its dimension, members and one kind byte per pair followed by the
+     * scale and offset of the linear pairs.
+     */
+    public void writeBinary(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(units.size());
+        for (String unit : units) {
+            data.writeUTF(unit);
+        }
+        data.writeInt(groups.size());
+        for (Group group : groups) {
+            data.writeUTF(group.dimension);
+            data.writeInt(group.members.length);
+            for (int member : group.members) {
+                data.writeInt(member);
+            }
+            for (int i = 0; i < group.kinds.length; i++) {
+                data.writeByte(group.kinds[i]);
+                if (group.kinds[i] == LINEAR) {
+                    data.writeDouble(group.scales[i]);
+                    data.writeDouble(group.offsets[i]);
+                }
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Read a matrix written by {@link #writeBinary(OutputStream)}.
+     *
+     * @throws IOException if the input is not a matrix of this version or
+     * has invalid counts
+     */
+    public static ConversionMatrix readBinary(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a conversion matrix");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported conversion matrix version " + version);
+        }
+        int count = data.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid unit count " + count);
+        }
+        // Sized by the data read, not by the counts, which may be corrupt
+        List<String> units = new ArrayList();
+        for (int i = 0; i < count; i++) {
+            units.add(data.readUTF());
+        }
+        int groupCount = data.readInt();
+        if (groupCount < 0 || groupCount > count) {
+            throw new IOException("Invalid group count " + groupCount);
+        }
+        List<Group> groups = new ArrayList(groupCount);
+        for (int g = 0; g < groupCount; g++) {
+            String dimension = data.readUTF();
+            int n = data.readInt();
+            if (n < 0 || n > count || (long) n * n > Integer.MAX_VALUE) {
+                throw new IOException("Invalid group size " + n);
+            }
+            Group group = new Group(dimension, n);
+            for (int i = 0; i < n; i++) {
+                group.members[i] = data.readInt();
+                if (group.members[i] < 0 || group.members[i] >= count) {
+                    throw new IOException("Invalid unit index " + group.members[i]);
+                }
+            }
+            for (int i = 0; i < group.kinds.length; i++) {
+                group.kinds[i] = data.readByte();
+                if (group.kinds[i] != NONE && group.kinds[i] != LINEAR && group.kinds[i] != NON_LINEAR) {
+                    throw new IOException("Invalid conversion kind " + group.kinds[i]);
+                }
+                if (group.kinds[i] == LINEAR) {
+                    group.scales[i] = data.readDouble();
+                    group.offsets[i] = data.readDouble();
+                }
+            }
+            groups.add(group);
+        }
+        return new ConversionMatrix(units, groups);
+    }
+
+    private static final class Group {
+
+        final String dimension;
+        final int[] members;
+        final byte[] kinds;
+        final double[] scales;
+        final double[] offsets;
+
+        Group(String dimension, int n) {
+            this.dimension = dimension;
+            this.members = new int[n];
+            this.kinds = new byte[n * n];
+            this.scales = new double[n * n];
+            this.offsets = new double[n * n];
+            Arrays.fill(scales, Double.NaN);
+            Arrays.fill(offsets, Double.NaN);
+        }
+
+        void set(int slot, Unit from, Unit to) {
+            ConversionPlan plan;
+            try {
+                plan = new ConversionPlan(null, null, from.getConverterTo(to));
+            } catch (Exception ex) {
+                return;
+            }
+            if (plan.isLinear()) {
+                kinds[slot] = LINEAR;
+                scales[slot] = plan.getScale();
+                offsets[slot] = plan.getOffset();
+            } else {
+                kinds[slot] = NON_LINEAR;
+            }
+        }
+    }
+}
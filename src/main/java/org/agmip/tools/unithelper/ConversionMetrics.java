@@ -0,0 +1,359 @@
+package org.agmip.tools.unithelper;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects call counts, latency histograms, failure counts, the most
+ * frequent and most failing unit expressions and the most failing unit pairs
+ * from the {@link UnitConverter} events, and exposes them as a JMX MXBean.
+ *
+ * <p>Typical use is {@code ConversionMetrics.install()}, which installs a new
+ * instance as the converter listener and registers it with the platform
+ * MBean server under {@value #OBJECT_NAME}. The unit rankings are kept with
+ * the Space-Saving algorithm in a fixed number of slots per thread stripe, so
+ * arbitrary unit strings from the input can not grow the memory use; counts
+ * of units which entered the ranking late are upper bounds.</p>
+ */
+public class ConversionMetrics implements ConversionListener, ConversionMetricsMXBean {
+
+    public static final String OBJECT_NAME = "org.agmip.tools.unithelper:type=ConversionMetrics";
+    private static final int DEFAULT_TOP_N = 20;
+    private static final int SLOTS_PER_RANK = 8;
+
+    private final LongAdder[] calls;
+    private final ConcurrentHashMap<String, LongAdder> failures = new ConcurrentHashMap();
+    private final ConcurrentHashMap<String, LongAdder> initFailures = new ConcurrentHashMap();
+    private final LatencyHistogram convertLatency = new LatencyHistogram();
+    private final LatencyHistogram parseLatency = new LatencyHistogram();
+    private final TopCounter topUnits;
+    private final TopCounter topFailingUnits;
+    private final TopCounter topFailingPairs;
+    private volatile int topN;
+
+    public ConversionMetrics() {
+        this(DEFAULT_TOP_N);
+    }
+
+    /**
+     * @param topN The number of units reported in the rankings; each stripe
+     * of a ranking tracks {@code 8 * topN} distinct units
+     */
+    public ConversionMetrics(int topN) {
+        if (topN <= 0) {
+            throw new IllegalArgumentException("topN must be positive: " + topN);
+        }
+        this.topN = topN;
+        this.calls = new LongAdder[Operation.values().length];
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = new LongAdder();
+        }
+        this.topUnits = new TopCounter(topN * SLOTS_PER_RANK);
+        this.topFailingUnits = new TopCounter(topN * SLOTS_PER_RANK);
+        this.topFailingPairs = new TopCounter(topN * SLOTS_PER_RANK);
+    }
+
+    /**
+     * Create a metrics collector, install it as the {@link UnitConverter}
+     * listener and register it with the platform MBean server, replacing a
+     * collector registered before.
+     *
+     * @return the installed collector
+     * @throws JMException if the MXBean can not be registered
+     */
+    public static synchronized ConversionMetrics install() throws JMException {
+        ConversionMetrics ret = new ConversionMetrics();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(ret, name);
+        UnitConverter.setListener(ret);
+        return ret;
+    }
+
+    /**
+     * Remove the listener from {@link UnitConverter} and unregister the
+     * MXBean if it is registered.
+     *
+     * @throws JMException if the MXBean can not be unregistered
+     */
+    public static synchronized void uninstall() throws JMException {
+        UnitConverter.setListener(null);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Override
+    public void called(Operation op, String fromUnit, String toUnit, long nanos, Exception failure) {
+        calls[op.ordinal()].increment();
+        if (op == Operation.CONVERT || op == Operation.CONVERT_JSON) {
+            convertLatency.record(nanos);
+        }
+        if (fromUnit != null) {
+            topUnits.add(fromUnit);
+        }
+        if (toUnit != null) {
+            topUnits.add(toUnit);
+        }
+        if (failure != null) {
+            count(failures, failure.getClass().getSimpleName());
+            if (toUnit != null) {
+                topFailingPairs.add(fromUnit + " -> " + toUnit);
+            }
+        }
+    }
+
+    @Override
+    public void parsed(String unitStr, UnitLookup result, long nanos) {
+        parseLatency.record(nanos);
+        if (!result.isParsed()) {
+            topFailingUnits.add(unitStr);
+        }
+    }
+
+    @Override
+    public void initFailed(String stage, Exception failure) {
+        count(initFailures, stage);
+    }
+
+    private static void count(ConcurrentHashMap<String, LongAdder> counts, String key) {
+        counts.computeIfAbsent(String.valueOf(key), k -> new LongAdder()).increment();
+    }
+
+    private static Map<String, Long> snapshot(ConcurrentHashMap<String, LongAdder> counts) {
+        Map<String, Long> ret = new HashMap();
+        for (Map.Entry<String, LongAdder> entry : counts.entrySet()) {
+            ret.put(entry.getKey(), entry.getValue().sum());
+        }
+        return ret;
+    }
+
+    @Override
+    public Map<String, Long> getCallCounts() {
+        Map<String, Long> ret = new LinkedHashMap();
+        for (Operation op : Operation.values()) {
+            ret.put(op.toString(), calls[op.ordinal()].sum());
+        }
+        return ret;
+    }
+
+    public long getCallCount(Operation op) {
+        return calls[op.ordinal()].sum();
+    }
+
+    @Override
+    public Map<String, Long> getFailureCounts() {
+        return snapshot(failures);
+    }
+
+    @Override
+    public Map<String, Long> getInitFailureCounts() {
+        return snapshot(initFailures);
+    }
+
+    @Override
+    public long[] getConvertLatencyHistogram() {
+        return convertLatency.counts();
+    }
+
+    @Override
+    public long[] getParseLatencyHistogram() {
+        return parseLatency.counts();
+    }
+
+    @Override
+    public Map<String, Long> getTopUnits() {
+        return topUnits.top(topN);
+    }
+
+    @Override
+    public Map<String, Long> getTopFailingUnits() {
+        return topFailingUnits.top(topN);
+    }
+
+    @Override
+    public Map<String, Long> getTopFailingPairs() {
+        return topFailingPairs.top(topN);
+    }
+
+    @Override
+    public int getTopN() {
+        return topN;
+    }
+
+    /**
+     * Change the number of units reported in the rankings. A value larger
+     * than the one given at construction reports less reliable tail entries.
+     */
+    @Override
+    public void setTopN(int topN) {
+        if (topN <= 0) {
+            throw new IllegalArgumentException("topN must be positive: " + topN);
+        }
+        this.topN = topN;
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder adder : calls) {
+            adder.reset();
+        }
+        failures.clear();
+        initFailures.clear();
+        convertLatency.clear();
+        parseLatency.clear();
+        topUnits.clear();
+        topFailingUnits.clear();
+        topFailingPairs.clear();
+    }
+
+    /**
+     * Histogram with one bucket per power of two nanoseconds.
+     */
+    static final class LatencyHistogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+        void record(long nanos) {
+            buckets.incrementAndGet(nanos <= 0 ? 0 : Math.min(63, 64 - Long.numberOfLeadingZeros(nanos)));
+        }
+
+        long[] counts() {
+            long[] ret = new long[buckets.length()];
+            int last = 0;
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = buckets.get(i);
+                if (ret[i] != 0) {
+                    last = i + 1;
+                }
+            }
+            long[] trimmed = new long[last];
+            System.arraycopy(ret, 0, trimmed, 0, last);
+            return trimmed;
+        }
+
+        void clear() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * Space-Saving frequency counter over a fixed number of slots. A new key
+     * arriving when all slots are taken replaces the least counted key and
+     * inherits its count. The counter is split into stripes chosen by the
+     * calling thread, so concurrent conversions rarely wait for each other;
+     * the stripes are merged when the ranking is read.
+     */
+    static final class TopCounter {
+
+        private final Stripe[] stripes;
+        private final int mask;
+
+        TopCounter(int slots) {
+            this(slots, Runtime.getRuntime().availableProcessors());
+        }
+
+        /**
+         * @param slots The number of keys tracked by each stripe
+         * @param stripes The minimum number of stripes, rounded up to a power
+         * of two and limited to 64
+         */
+        TopCounter(int slots, int stripes) {
+            int n = Integer.highestOneBit(Math.max(1, Math.min(64, stripes)));
+            if (n < stripes && n < 64) {
+                n <<= 1;
+            }
+            this.stripes = new Stripe[n];
+            for (int i = 0; i < n; i++) {
+                this.stripes[i] = new Stripe(slots);
+            }
+            this.mask = n - 1;
+        }
+
+        void add(String key) {
+            long id = Thread.currentThread().getId();
+            stripes[(int) (id ^ (id >>> 32)) & mask].add(key);
+        }
+
+        Map<String, Long> top(int n) {
+            HashMap<String, Long> merged = new HashMap();
+            for (Stripe stripe : stripes) {
+                stripe.mergeInto(merged);
+            }
+            List<Map.Entry<String, Long>> entries = new ArrayList(merged.entrySet());
+            Collections.sort(entries, (a, b) -> Long.compare(b.getValue(), a.getValue()));
+            Map<String, Long> ret = new LinkedHashMap();
+            for (int i = 0; i < entries.size() && i < n; i++) {
+                ret.put(entries.get(i).getKey(), entries.get(i).getValue());
+            }
+            return ret;
+        }
+
+        void clear() {
+            for (Stripe stripe : stripes) {
+                stripe.clear();
+            }
+        }
+    }
+
+    private static final class Stripe {
+
+        private final HashMap<String, long[]> counts = new HashMap();
+        private final int slots;
+
+        Stripe(int slots) {
+            this.slots = slots;
+        }
+
+        synchronized void add(String key) {
+            long[] count = counts.get(key);
+            if (count != null) {
+                count[0]++;
+                return;
+            }
+            if (counts.size() < slots) {
+                counts.put(key, new long[]{1});
+                return;
+            }
+            String minKey = null;
+            long min = Long.MAX_VALUE;
+            for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+                if (entry.getValue()[0] < min) {
+                    min = entry.getValue()[0];
+                    minKey = entry.getKey();
+                }
+            }
+            counts.remove(minKey);
+            counts.put(key, new long[]{min + 1});
+        }
+
+        synchronized void mergeInto(Map<String, Long> merged) {
+            for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+                Long count = merged.get(entry.getKey());
+                merged.put(entry.getKey(), entry.getValue()[0] + (count == null ? 0 : count));
+            }
+        }
+
+        synchronized void clear() {
+            counts.clear();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.agmip.tools.unithelper;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link ConversionMetrics} counters.
+ */
+public interface ConversionMetricsMXBean {
+
+    /**
+     * @return number of calls per {@link ConversionListener.Operation}
+     */
+    Map<String, Long> getCallCounts();
+
+    /**
+     * @return number of failed calls per exception type
+     */
+    Map<String, Long> getFailureCounts();
+
+    /**
+     * @return number of failures per initialization step
+     */
+    Map<String, Long> getInitFailureCounts();
+
+    /**
+     * @return latency histogram of the convert calls, where bucket i counts
+     * the calls which took less than 2^i and at least 2^(i-1) nanoseconds
+     */
+    long[] getConvertLatencyHistogram();
+
+    /**
+     * @return latency histogram of the unit parses, bucketed like
+     * {@link #getConvertLatencyHistogram()}
+     */
+    long[] getParseLatencyHistogram();
+
+    /**
+     * @return the most requested unit expressions with their approximate
+     * request counts
+     */
+    Map<String, Long> getTopUnits();
+
+    /**
+     * @return the unit expressions which failed to parse most often with
+     * their approximate counts; an invalid expression is parsed again only
+     * after it dropped out of the caches
+     */
+    Map<String, Long> getTopFailingUnits();
+
+    /**
+     * @return the failed conversions as "from -> to" unit pairs with their
+     * approximate failure counts
+     */
+    Map<String, Long> getTopFailingPairs();
+
+    int getTopN();
+
+    void setTopN(int topN);
+
+    void reset();
+}
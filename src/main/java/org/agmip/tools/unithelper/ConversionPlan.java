@@ -0,0 +1,408 @@
+package org.agmip.tools.unithelper;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.BufferOverflowException;
+import java.nio.DoubleBuffer;
+import java.util.function.DoubleUnaryOperator;
+import ucar.units.Converter;
+
+/**
+ * Pre-resolved conversion between two unit expressions. A plan is immutable
+ * and can be shared between threads. Conversions which are affine in UDUnits
+ * (value * scale + offset) are applied with a single multiply-add, the others
+ * fall back to the UDUnits converter.
+ */
+public final class ConversionPlan implements DoubleUnaryOperator {
+
+    private static final double PROBE = 1.0E6;
+    private static final double[] CHECK_POINTS = {-PROBE, -1.0, 0.5, 2.0, 37.0, PROBE};
+    private static final double TOLERANCE = 1.0E-12;
+    private static final int SNAP_DIGITS = 12;
+    private static final long MAX_DENOMINATOR = 100000L;
+    private static final int SNAP_ULPS = 8;
+
+    private final String fromUnit;
+    private final String toUnit;
+    private volatile Converter converter;
+    private final boolean linear;
+    private final double scale;
+    private final double offset;
+    private volatile Exact exact;
+
+    ConversionPlan(String fromUnit, String toUnit, Converter converter) {
+        this.fromUnit = fromUnit;
+        this.toUnit = toUnit;
+        this.converter = converter;
+        double b = converter.convert(0.0);
+        double a;
+        if (b == 0.0) {
+            a = converter.convert(1.0);
+        } else {
+            a = (converter.convert(PROBE) - converter.convert(-PROBE)) / (2 * PROBE);
+        }
+        this.linear = isAffine(converter, a, b);
+        this.scale = linear ? a : Double.NaN;
+        this.offset = linear ? b : Double.NaN;
+    }
+
+    /**
+     * Create a linear plan from known factors. Used for the conversions
+     * restored from a {@link WarmupSnapshot}: the double conversions apply the
+     * factors, and the UDUnits converter which the rounded results are based
+     * on is resolved on first use.
+     */
+    ConversionPlan(String fromUnit, String toUnit, double scale, double offset) {
+        this.fromUnit = fromUnit;
+        this.toUnit = toUnit;
+        this.converter = null;
+        this.linear = true;
+        this.scale = scale;
+        this.offset = offset;
+    }
+
+    private static boolean isAffine(Converter converter, double scale, double offset) {
+        if (Double.isNaN(scale) || Double.isInfinite(scale)
+                || Double.isNaN(offset) || Double.isInfinite(offset)) {
+            return false;
+        }
+        for (double x : CHECK_POINTS) {
+            double expected = converter.convert(x);
+            double actual = x * scale + offset;
+            double magnitude = Math.abs(x * scale) + Math.abs(offset);
+            if (Math.abs(expected - actual) > TOLERANCE * magnitude) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getFromUnit() {
+        return fromUnit;
+    }
+
+    public String getToUnit() {
+        return toUnit;
+    }
+
+    /**
+     * @return true if the conversion is applied as value * scale + offset
+     */
+    public boolean isLinear() {
+        return linear;
+    }
+
+    /**
+     * @return the multiplier of the affine conversion, or NaN if the
+     * conversion is not linear
+     */
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * @return the offset of the affine conversion, or NaN if the conversion
+     * is not linear
+     */
+    public double getOffset() {
+        return offset;
+    }
+
+    /**
+     * Convert the value with the affine coefficients when available.
+     *
+     * @param val The value in the original unit
+     * @return The value in the target unit
+     */
+    @Override
+    public double applyAsDouble(double val) {
+        if (linear) {
+            return val * scale + offset;
+        }
+        return converter().convert(val);
+    }
+
+    /**
+     * Convert all the values of the source array into the destination array.
+     *
+     * @param src The values in the original unit
+     * @param dst The array receiving the converted values, may be the source
+     * array itself; a new array is created when null
+     * @return The destination array
+     */
+    public double[] convert(double[] src, double[] dst) {
+        if (dst == null) {
+            dst = new double[src.length];
+        }
+        if (!linear && dst.length == src.length) {
+            return converter().convert(src, dst);
+        }
+        return convert(src, 0, dst, 0, src.length);
+    }
+
+    /**
+     * Convert a range of the source array into the destination array. The
+     * ranges may only overlap when they start at the same position.
+     *
+     * @param src The values in the original unit
+     * @param srcPos The start position in the source array
+     * @param dst The array receiving the converted values
+     * @param dstPos The start position in the destination array
+     * @param length The number of values to convert
+     * @return The destination array
+     */
+    public double[] convert(double[] src, int srcPos, double[] dst, int dstPos, int length) {
+        if (srcPos < 0 || dstPos < 0 || length < 0
+                || length > src.length - srcPos || length > dst.length - dstPos) {
+            throw new ArrayIndexOutOfBoundsException("Invalid range: srcPos=" + srcPos
+                    + ", dstPos=" + dstPos + ", length=" + length);
+        }
+        if (linear) {
+            double a = scale;
+            double b = offset;
+            for (int i = 0; i < length; i++) {
+                dst[dstPos + i] = src[srcPos + i] * a + b;
+            }
+        } else {
+            Converter c = converter();
+            for (int i = 0; i < length; i++) {
+                dst[dstPos + i] = c.convert(src[srcPos + i]);
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * Convert the remaining values of the source buffer into the destination
+     * buffer. Both buffers may be direct. The positions of both buffers are
+     * advanced by the number of converted values.
+     *
+     * @param src The values in the original unit
+     * @param dst The buffer receiving the converted values
+     * @throws BufferOverflowException if there is insufficient space in the
+     * destination buffer
+     */
+    public void convert(DoubleBuffer src, DoubleBuffer dst) {
+        int length = src.remaining();
+        if (length > dst.remaining()) {
+            throw new BufferOverflowException();
+        }
+        int srcPos = src.position();
+        int dstPos = dst.position();
+        if (src.hasArray() && dst.hasArray()) {
+            convert(src.array(), src.arrayOffset() + srcPos, dst.array(), dst.arrayOffset() + dstPos, length);
+        } else if (linear) {
+            double a = scale;
+            double b = offset;
+            for (int i = 0; i < length; i++) {
+                dst.put(dstPos + i, src.get(srcPos + i) * a + b);
+            }
+        } else {
+            Converter c = converter();
+            for (int i = 0; i < length; i++) {
+                dst.put(dstPos + i, c.convert(src.get(srcPos + i)));
+            }
+        }
+        src.position(srcPos + length);
+        dst.position(dstPos + length);
+    }
+
+    /**
+     * Convert the value and keep the significant digits of the input, the same
+     * way as {@link UnitConverter#convert(String, String, BigDecimal)}.
+     *
+     * @param val The value in the original unit
+     * @return The value in the target unit
+     */
+    public BigDecimal apply(BigDecimal val) {
+        return SignificantRounding.round(value(val.doubleValue()), val.precision());
+    }
+
+    /**
+     * Convert the value and keep the given number of significant digits with
+     * the same rule as {@link #apply(BigDecimal)}, without allocation.
+     *
+     * @param val The value in the original unit
+     * @param precision The number of significant digits of the original value
+     * @return The rounded value in the target unit
+     */
+    public double applySignificant(double val, int precision) {
+        return SignificantRounding.roundToDouble(value(val), precision);
+    }
+
+    /**
+     * Convert the value and append it in plain notation, the same text as
+     * {@code apply(val).toPlainString()}.
+     *
+     * @param val The value in the original unit
+     * @param precision The number of significant digits of the original value
+     * @param out The destination of the converted value
+     */
+    public void appendSignificant(double val, int precision, StringBuilder out) {
+        SignificantRounding.append(value(val), precision, out);
+    }
+
+    public void appendSignificant(double val, int precision, Appendable out) throws IOException {
+        SignificantRounding.append(value(val), precision, out);
+    }
+
+    /**
+     * Convert the value and round it to the given scale, the same way as
+     * {@link UnitConverter#convert(String, String, BigDecimal, int)}.
+     *
+     * @param val The value in the original unit
+     * @param scale The scale of the result
+     * @return The value in the target unit
+     */
+    public BigDecimal apply(BigDecimal val, int scale) {
+        return new BigDecimal(value(val.doubleValue())).setScale(scale, RoundingMode.HALF_UP);
+    }
+
+    /**
+     * Convert the value in decimal arithmetic with the exact factors of the
+     * conversion. The double factors are traced back to the decimal or the
+     * fraction they stand for, for example 1000 for a scale of
+     * 999.9999999999999 or 5/9 for degF to degC, and the result is rounded
+     * once with the given context. The exact factors are computed on first
+     * use and kept with the plan. Conversions which are not linear are
+     * converted in double and rounded to the context.
+     *
+     * @param val The value in the original unit
+     * @param mc The precision and rounding of the result
+     * @return The value in the target unit
+     */
+    public BigDecimal applyExact(BigDecimal val, MathContext mc) {
+        if (!linear) {
+            return BigDecimal.valueOf(converter().convert(val.doubleValue())).round(mc);
+        }
+        Exact e = exact;
+        if (e == null) {
+            e = new Exact(rational(scale), rational(offset));
+            exact = e;
+        }
+        return e.apply(val, mc);
+    }
+
+    /**
+     * Find the decimal or fraction which a double factor stands for: the
+     * shortest decimal of up to 12 significant digits, then the continued
+     * fraction convergent with a denominator of up to 100000, within a few
+     * ulps of the factor. Otherwise the shortest decimal which reads back as
+     * the same double is used.
+     *
+     * @return the numerator and the positive denominator
+     */
+    static BigDecimal[] rational(double x) {
+        if (x == 0.0) {
+            return new BigDecimal[]{BigDecimal.ZERO, BigDecimal.ONE};
+        }
+        double tolerance = SNAP_ULPS * Math.ulp(x);
+        BigDecimal binary = new BigDecimal(x);
+        for (int digits = 1; digits <= SNAP_DIGITS; digits++) {
+            BigDecimal dec = binary.round(new MathContext(digits));
+            if (Math.abs(dec.doubleValue() - x) <= tolerance) {
+                return new BigDecimal[]{plain(dec), BigDecimal.ONE};
+            }
+        }
+        double r = Math.abs(x);
+        long h0 = 0;
+        long h1 = 1;
+        long k0 = 1;
+        long k1 = 0;
+        for (int i = 0; i < 64 && r < Long.MAX_VALUE; i++) {
+            long a = (long) Math.floor(r);
+            long h2 = a * h1 + h0;
+            long k2 = a * k1 + k0;
+            if (k2 > MAX_DENOMINATOR || h2 < 0) {
+                break;
+            }
+            if (Math.abs((double) h2 / k2 - Math.abs(x)) <= tolerance) {
+                BigDecimal num = BigDecimal.valueOf(x < 0 ? -h2 : h2);
+                return new BigDecimal[]{num, BigDecimal.valueOf(k2)};
+            }
+            double frac = r - a;
+            if (frac == 0.0) {
+                break;
+            }
+            r = 1.0 / frac;
+            h0 = h1;
+            h1 = h2;
+            k0 = k1;
+            k1 = k2;
+        }
+        return new BigDecimal[]{plain(BigDecimal.valueOf(x)), BigDecimal.ONE};
+    }
+
+    private static BigDecimal plain(BigDecimal dec) {
+        return dec.scale() < 0 ? dec.setScale(0) : dec;
+    }
+
+    /**
+     * Scale and offset of a linear conversion as fractions.
+     */
+    private static final class Exact {
+
+        private final BigDecimal scaleNum;
+        private final BigDecimal offsetTerm;
+        private final BigDecimal denominator;
+
+        Exact(BigDecimal[] scale, BigDecimal[] offset) {
+            // val * a / b + c / d = (val * a * d + c * b) / (b * d)
+            this.scaleNum = scale[0].multiply(offset[1]);
+            this.offsetTerm = offset[0].multiply(scale[1]);
+            this.denominator = scale[1].multiply(offset[1]);
+        }
+
+        BigDecimal apply(BigDecimal val, MathContext mc) {
+            BigDecimal num = val.multiply(scaleNum);
+            if (offsetTerm.signum() != 0) {
+                num = num.add(offsetTerm);
+            }
+            if (denominator.compareTo(BigDecimal.ONE) == 0) {
+                return num.round(mc);
+            }
+            return num.divide(denominator, mc);
+        }
+    }
+
+    /**
+     * Convert with the UDUnits converter, which the rounded results are based
+     * on, so a restored plan rounds the same as a plan compiled by
+     * {@link UnitConverter#compile(String, String)}.
+     */
+    private double value(double val) {
+        Converter c = converter();
+        if (c == null) {
+            return val * scale + offset;
+        }
+        return c.convert(val);
+    }
+
+    /**
+     * @return the UDUnits converter, resolved on first use for a restored
+     * plan, or null if the units of a restored plan no longer resolve, in
+     * which case the saved factors are used
+     */
+    private Converter converter() {
+        Converter ret = converter;
+        if (ret == null) {
+            try {
+                ret = UnitConverter.parseUnit(fromUnit).getConverterTo(UnitConverter.parseUnit(toUnit));
+            } catch (Exception ex) {
+                return null;
+            }
+            converter = ret;
+        }
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        if (linear) {
+            return fromUnit + " -> " + toUnit + ": x * " + scale + " + " + offset;
+        }
+        return fromUnit + " -> " + toUnit + ": " + converter();
+    }
+}
@@ -0,0 +1,76 @@
+package org.agmip.tools.unithelper;
+
+import java.math.BigDecimal;
+
+/**
+ * One value to convert between two unit expressions, the input of
+ * {@link ParallelConverter}.
+ */
+public final class ConversionRequest {
+
+    private final String fromUnit;
+    private final String toUnit;
+    private final BigDecimal value;
+    private final int scale;
+    private final boolean scaled;
+
+    /**
+     * Request a conversion which keeps the significant digits of the value,
+     * like {@link UnitConverter#convert(String, String, BigDecimal)}.
+     */
+    public ConversionRequest(String fromUnit, String toUnit, BigDecimal value) {
+        this(fromUnit, toUnit, value, 0, false);
+    }
+
+    /**
+     * Request a conversion rounded to the given number of decimal places, like
+     * {@link UnitConverter#convert(String, String, BigDecimal, int)}.
+     */
+    public ConversionRequest(String fromUnit, String toUnit, BigDecimal value, int scale) {
+        this(fromUnit, toUnit, value, scale, true);
+    }
+
+    public ConversionRequest(String fromUnit, String toUnit, String value) {
+        this(fromUnit, toUnit, new BigDecimal(value));
+    }
+
+    private ConversionRequest(String fromUnit, String toUnit, BigDecimal value, int scale, boolean scaled) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        this.fromUnit = fromUnit;
+        this.toUnit = toUnit;
+        this.value = value;
+        this.scale = scale;
+        this.scaled = scaled;
+    }
+
+    public String getFromUnit() {
+        return fromUnit;
+    }
+
+    public String getToUnit() {
+        return toUnit;
+    }
+
+    public BigDecimal getValue() {
+        return value;
+    }
+
+    public boolean hasScale() {
+        return scaled;
+    }
+
+    /**
+     * @return the requested number of decimal places, only meaningful when
+     * {@link #hasScale()} is true
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    @Override
+    public String toString() {
+        return value.toPlainString() + " " + fromUnit + " -> " + toUnit;
+    }
+}
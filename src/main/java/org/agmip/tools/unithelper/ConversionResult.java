@@ -0,0 +1,100 @@
+package org.agmip.tools.unithelper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import org.json.simple.JSONObject;
+
+/**
+ * Outcome of one {@link ConversionRequest}. The status and message follow
+ * {@link UnitConverter#convertToJsonObj(String, String, BigDecimal)}: status
+ * "0" with message "successful", or status "1" with the reason of the
+ * failure.
+ */
+public final class ConversionResult {
+
+    public static final String STATUS_SUCCESS = "0";
+    public static final String STATUS_FAILURE = "1";
+
+    private final ConversionRequest request;
+    private final BigDecimal value;
+    private final String message;
+
+    private ConversionResult(ConversionRequest request, BigDecimal value, String message) {
+        this.request = request;
+        this.value = value;
+        this.message = message;
+    }
+
+    static ConversionResult success(ConversionRequest request, BigDecimal value) {
+        return new ConversionResult(request, value, "successful");
+    }
+
+    static ConversionResult failure(ConversionRequest request, String message) {
+        return new ConversionResult(request, null, message);
+    }
+
+    public ConversionRequest getRequest() {
+        return request;
+    }
+
+    public boolean isSuccessful() {
+        return value != null;
+    }
+
+    public String getStatus() {
+        return value != null ? STATUS_SUCCESS : STATUS_FAILURE;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the converted value, or null if the conversion failed
+     */
+    public BigDecimal getValue() {
+        return value;
+    }
+
+    /**
+     * @return the same JSON object as
+     * {@link UnitConverter#convertToJsonObj(String, String, BigDecimal)}
+     * returns for the request
+     */
+    public JSONObject toJsonObj() {
+        JSONObject ret = new JSONObject();
+        ret.put("unit_from", request.getFromUnit());
+        ret.put("unit_to", request.getToUnit());
+        ret.put("value_from", request.getValue().toPlainString());
+        if (value != null) {
+            ret.put("value_to", value.toPlainString());
+        }
+        ret.put("status", getStatus());
+        ret.put("message", message);
+        return ret;
+    }
+
+    /**
+     * Write the JSON of {@link #toJsonObj()} to the output without building
+     * the object.
+     */
+    public void writeJson(Appendable out) throws IOException {
+        JsonWriter.writeResult(this, out);
+    }
+
+    public String toJsonStr() {
+        StringBuilder ret = new StringBuilder(128);
+        try {
+            JsonWriter.writeResult(this, ret);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return ret.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toJsonStr();
+    }
+}
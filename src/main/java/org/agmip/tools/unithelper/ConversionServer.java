@@ -0,0 +1,422 @@
+package org.agmip.tools.unithelper;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Embedded HTTP service exposing the {@link UnitConverter} operations, so
+ * scripts in other languages can share one initialized converter instead of
+ * starting a JVM per process. It runs on the JDK built-in HTTP server and
+ * answers with the same JSON as the library methods.
+ *
+ * <ul>
+ * <li>{@code GET /convert?unit_from=&unit_to=&value_from=[&scale=]} -
+ * {@link UnitConverter#convertToJsonStr(String, String, String)}</li>
+ * <li>{@code GET /units?type=} - {@link UnitConverter#listUnitJsonStr(String)}</li>
+ * <li>{@code GET /prefixes} - {@link UnitConverter#listPrefixJsonStr()}</li>
+ * <li>{@code GET /descp?unit=} and {@code GET /category?unit=} -
+ * {@link UnitConverter#getDescp(String)} and
+ * {@link UnitConverter#getCategory(String)} as {@code {"unit", "descp"}} and
+ * {@code {"unit", "category"}} objects</li>
+ * <li>{@code POST /batch} - a JSON array or newline delimited requests,
+ * answered by {@link BatchConverter} once the whole batch is converted, or
+ * with 400 if the JSON array is malformed</li>
+ * <li>{@code GET /stats} - request counts, throughput and latency per
+ * endpoint, and the counts of rejected requests and of requests to unknown
+ * endpoints</li>
+ * </ul>
+ *
+ * <p>Responses of known length keep the HTTP/1.1 connection alive. Requests
+ * are handled by a fixed number of worker threads with a bounded queue; when
+ * the queue is full the request is answered with 503 by a separate thread and
+ * the connection is closed, without running the operation. When that thread
+ * is busy as well, the connection is closed without an answer.</p>
+ */
+public class ConversionServer {
+
+    private static final String JSON_TYPE = "application/json; charset=utf-8";
+    private static final String[] ENDPOINTS = {"convert", "units", "prefixes", "descp", "category", "batch", "stats"};
+
+    private final HttpServer server;
+    private final ThreadPoolExecutor executor;
+    private final Overload overload;
+    private final Map<String, EndpointStats> stats = new LinkedHashMap();
+    private final EndpointStats unknown = new EndpointStats();
+    private final LongAdder rejected = new LongAdder();
+    private volatile long startTime;
+
+    /**
+     * Create a server bound to the loopback address.
+     *
+     * @param port The port to listen on, or 0 for an ephemeral port
+     * @param threads The number of worker threads
+     * @param queueSize The number of requests which may wait for a worker
+     */
+    public ConversionServer(int port, int threads, int queueSize) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), threads, queueSize);
+    }
+
+    public ConversionServer(InetSocketAddress address, int threads, int queueSize) throws IOException {
+        this.overload = new Overload(rejected);
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue(queueSize), new WorkerFactory("unithelper-http-"), overload);
+        this.server = HttpServer.create(address, 0);
+        this.startTime = System.nanoTime();
+        server.setExecutor(executor);
+        for (String name : ENDPOINTS) {
+            stats.put(name, new EndpointStats());
+        }
+        server.createContext("/", new Endpoint(null));
+        for (String name : ENDPOINTS) {
+            server.createContext("/" + name, new Endpoint(name));
+        }
+    }
+
+    public void start() {
+        startTime = System.nanoTime();
+        server.start();
+    }
+
+    /**
+     * Stop accepting requests, wait up to the given delay for the exchanges in
+     * progress and release the worker threads.
+     *
+     * @param delaySeconds The maximum time to wait for running exchanges
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+        overload.shutdown();
+    }
+
+    /**
+     * @return the bound address, with the actual port when created with port
+     * 0
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private final class Endpoint implements HttpHandler {
+
+        private final String name;
+
+        Endpoint(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            EndpointStats endpoint = unknown;
+            try {
+                if (Overload.OVERLOADED.get() != null) {
+                    rejected.increment();
+                    exchange.getResponseHeaders().set("Connection", "close");
+                    send(exchange, 503, error("server busy"));
+                    return;
+                }
+                long start = System.nanoTime();
+                if (name == null || !exchange.getRequestURI().getPath().equals("/" + name)) {
+                    drain(exchange);
+                    unknown.record(System.nanoTime() - start, false);
+                    send(exchange, 404, error("unknown endpoint"));
+                    return;
+                }
+                endpoint = stats.get(name);
+                int code = dispatch(exchange);
+                endpoint.record(System.nanoTime() - start, code >= 400);
+            } catch (IOException | RuntimeException ex) {
+                endpoint.errors.increment();
+                throw ex;
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private int dispatch(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            boolean post = name.equals("batch");
+            if (post ? !method.equals("POST") : !method.equals("GET")) {
+                drain(exchange);
+                exchange.getResponseHeaders().set("Allow", post ? "POST" : "GET");
+                return send(exchange, 405, error("method not allowed"));
+            }
+            if (post) {
+                // Buffered, so a malformed batch is not answered with a cut off 200
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (InputStream in = exchange.getRequestBody()) {
+                    BatchConverter.convert(in, out);
+                } catch (IOException ex) {
+                    return send(exchange, 400, error("invalid batch: " + ex.getMessage()));
+                }
+                return send(exchange, 200, out.toByteArray());
+            }
+            Map<String, String> params;
+            try {
+                params = parseQuery(exchange.getRequestURI().getRawQuery());
+            } catch (IllegalArgumentException ex) {
+                return send(exchange, 400, error("invalid query: " + ex.getMessage()));
+            }
+            switch (name) {
+                case "convert":
+                    return sendConversion(exchange, params);
+                case "units":
+                    return send(exchange, 200, UnitConverter.listUnitJsonStr(params.get("type")));
+                case "prefixes":
+                    return send(exchange, 200, UnitConverter.listPrefixJsonStr());
+                case "descp":
+                case "category": {
+                    String unit = params.get("unit");
+                    if (unit == null) {
+                        return send(exchange, 400, error("missing parameter unit"));
+                    }
+                    JSONObject ret = new JSONObject();
+                    ret.put("unit", unit);
+                    ret.put(name, name.equals("descp") ? UnitConverter.getDescp(unit) : UnitConverter.getCategory(unit));
+                    return send(exchange, 200, ret.toJSONString());
+                }
+                default:
+                    return send(exchange, 200, statsJson().toJSONString());
+            }
+        }
+    }
+
+    private static int sendConversion(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String unitFrom = params.get("unit_from");
+        String unitTo = params.get("unit_to");
+        String value = params.get("value_from");
+        if (unitFrom == null || unitTo == null || value == null) {
+            return send(exchange, 400, error("missing parameter unit_from, unit_to or value_from"));
+        }
+        BigDecimal val;
+        Integer scale = null;
+        try {
+            val = new BigDecimal(value);
+            if (params.containsKey("scale")) {
+                scale = Integer.valueOf(params.get("scale"));
+            }
+        } catch (NumberFormatException ex) {
+            return send(exchange, 400, error("invalid value"));
+        }
+        String ret = scale == null
+                ? UnitConverter.convertToJsonStr(unitFrom, unitTo, val)
+                : UnitConverter.convertToJsonStr(unitFrom, unitTo, val, scale);
+        return send(exchange, 200, ret);
+    }
+
+    private static String error(String message) {
+        JSONObject ret = new JSONObject();
+        ret.put("status", "1");
+        ret.put("message", message);
+        return ret.toJSONString();
+    }
+
+    private static int send(HttpExchange exchange, int code, String body) throws IOException {
+        return send(exchange, code, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int send(HttpExchange exchange, int code, byte[] bytes) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", JSON_TYPE);
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+        return code;
+    }
+
+    /**
+     * Read the rest of the request body, which is needed to reuse the
+     * connection for the next request.
+     */
+    private static void drain(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buf = new byte[4096];
+            while (in.read(buf) >= 0) {
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the query has an invalid escape
+     */
+    static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> ret = new HashMap();
+        if (query == null || query.isEmpty()) {
+            return ret;
+        }
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int idx = pair.indexOf('=');
+            String key = URLDecoder.decode(idx < 0 ? pair : pair.substring(0, idx), "UTF-8");
+            String value = idx < 0 ? "" : URLDecoder.decode(pair.substring(idx + 1), "UTF-8");
+            if (!ret.containsKey(key)) {
+                ret.put(key, value);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the request statistics served by the /stats endpoint
+     */
+    public JSONObject statsJson() {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        long total = 0;
+        JSONObject endpoints = new JSONObject();
+        for (Map.Entry<String, EndpointStats> entry : stats.entrySet()) {
+            EndpointStats endpoint = entry.getValue();
+            long count = endpoint.count.sum();
+            total += count;
+            JSONObject info = new JSONObject();
+            info.put("requests", count);
+            info.put("errors", endpoint.errors.sum());
+            info.put("mean_us", count == 0 ? 0.0 : endpoint.nanos.sum() / 1e3 / count);
+            info.put("max_us", endpoint.maxNanos.get() / 1e3);
+            JSONArray histogram = new JSONArray();
+            for (long bucket : endpoint.latency.counts()) {
+                histogram.add(bucket);
+            }
+            info.put("latency_histogram_log2_ns", histogram);
+            endpoints.put(entry.getKey(), info);
+        }
+        JSONObject ret = new JSONObject();
+        ret.put("uptime_s", seconds);
+        ret.put("requests", total);
+        ret.put("throughput_per_s", seconds > 0 ? total / seconds : 0.0);
+        ret.put("active_workers", executor.getActiveCount());
+        ret.put("queued", executor.getQueue().size());
+        ret.put("rejected", rejected.sum());
+        JSONObject other = new JSONObject();
+        other.put("requests", unknown.count.sum());
+        other.put("errors", unknown.errors.sum());
+        ret.put("unknown_endpoint", other);
+        ret.put("endpoints", endpoints);
+        return ret;
+    }
+
+    private static final class EndpointStats {
+
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final ConversionMetrics.LatencyHistogram latency = new ConversionMetrics.LatencyHistogram();
+
+        void record(long elapsed, boolean failed) {
+            count.increment();
+            if (failed) {
+                errors.increment();
+            }
+            nanos.add(elapsed);
+            latency.record(elapsed);
+            long max;
+            while (elapsed > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, elapsed)) {
+            }
+        }
+    }
+
+    /**
+     * Rejection of the requests which find the queue full. The HTTP server
+     * gives its exchanges to the executor before it reads the request, on
+     * the thread accepting the connections, which must not wait for a slow
+     * client. The exchange is therefore run by a single thread of its own,
+     * with a flag telling the handler to answer 503 at once instead of
+     * running the operation. When the queue of that thread is full too, the
+     * exchange is refused, and the HTTP server closes the connection.
+     */
+    private static final class Overload implements RejectedExecutionHandler {
+
+        static final ThreadLocal<Boolean> OVERLOADED = new ThreadLocal();
+        private static final int QUEUE_SIZE = 64;
+
+        private final ThreadPoolExecutor rejecter = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue(QUEUE_SIZE), new WorkerFactory("unithelper-http-reject-"));
+        private final LongAdder rejected;
+
+        Overload(LongAdder rejected) {
+            this.rejected = rejected;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Server is stopped");
+            }
+            try {
+                rejecter.execute(() -> {
+                    OVERLOADED.set(Boolean.TRUE);
+                    try {
+                        r.run();
+                    } finally {
+                        OVERLOADED.remove();
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                rejected.increment();
+                throw ex;
+            }
+        }
+
+        void shutdown() {
+            rejecter.shutdown();
+        }
+    }
+
+    private static final class WorkerFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        WorkerFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread ret = new Thread(r, prefix + count.incrementAndGet());
+            ret.setDaemon(true);
+            return ret;
+        }
+    }
+
+    /**
+     * Start a server on the loopback address. Arguments: port (default 8080),
+     * number of worker threads (default number of processors) and queue size
+     * (default 256).
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int queueSize = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        ConversionServer server = new ConversionServer(port, threads, queueSize);
+        server.start();
+        System.out.println("Unit conversion service listening on " + server.getAddress());
+    }
+}
@@ -0,0 +1,229 @@
+package org.agmip.tools.unithelper;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * Writes the JSON of the converter results directly to an output, with the
+ * same text as json-simple produces for the equivalent {@code JSONObject}:
+ * the same string escaping and the same key order, which is the iteration
+ * order of the {@code HashMap} behind {@code JSONObject}.
+ */
+final class JsonWriter {
+
+    private static final String[] CONVERSION_KEYS = {"unit_from", "unit_to", "value_from", "value_to", "status", "message"};
+    private static final int UNIT_FROM = 0;
+    private static final int UNIT_TO = 1;
+    private static final int VALUE_FROM = 2;
+    private static final int VALUE_TO = 3;
+    private static final int STATUS = 4;
+    private static final int MESSAGE = 5;
+    private static final int[] SUCCESS_ORDER = keyOrder(CONVERSION_KEYS, true);
+    private static final int[] FAILURE_ORDER = keyOrder(CONVERSION_KEYS, false);
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private JsonWriter() {
+    }
+
+    /**
+     * Find the order in which a json-simple object iterates the keys, by
+     * putting them into a HashMap in the order the converter puts them.
+     */
+    private static int[] keyOrder(String[] keys, boolean withValueTo) {
+        HashMap<String, Integer> map = new HashMap();
+        for (int i = 0; i < keys.length; i++) {
+            if (withValueTo || i != VALUE_TO) {
+                map.put(keys[i], i);
+            }
+        }
+        int[] ret = new int[map.size()];
+        int n = 0;
+        for (Integer idx : map.values()) {
+            ret[n++] = idx;
+        }
+        return ret;
+    }
+
+    /**
+     * Write the result in the format of
+     * {@link UnitConverter#convertToJsonObj(String, String, java.math.BigDecimal)}.
+     */
+    static void writeResult(ConversionResult result, Appendable out) throws IOException {
+        ConversionRequest request = result.getRequest();
+        boolean success = result.isSuccessful();
+        String valueTo = success ? result.getValue().toPlainString() : null;
+        String valueFrom = request.getValue().toPlainString();
+        int[] order = success ? SUCCESS_ORDER : FAILURE_ORDER;
+        out.append('{');
+        for (int i = 0; i < order.length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            int key = order[i];
+            out.append('"').append(CONVERSION_KEYS[key]).append("\":");
+            switch (key) {
+                case UNIT_FROM:
+                    writeString(request.getFromUnit(), out);
+                    break;
+                case UNIT_TO:
+                    writeString(request.getToUnit(), out);
+                    break;
+                case VALUE_FROM:
+                    writeString(valueFrom, out);
+                    break;
+                case VALUE_TO:
+                    writeString(valueTo, out);
+                    break;
+                case STATUS:
+                    writeString(result.getStatus(), out);
+                    break;
+                default:
+                    writeString(result.getMessage(), out);
+                    break;
+            }
+        }
+        out.append('}');
+    }
+
+    /**
+     * Write a string value quoted and escaped like {@code JSONValue}, or
+     * {@code null}.
+     */
+    static void writeString(String str, Appendable out) throws IOException {
+        if (str == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        int start = 0;
+        int len = str.length();
+        for (int i = 0; i < len; i++) {
+            char ch = str.charAt(i);
+            String esc;
+            switch (ch) {
+                case '"':
+                    esc = "\\\"";
+                    break;
+                case '\\':
+                    esc = "\\\\";
+                    break;
+                case '\b':
+                    esc = "\\b";
+                    break;
+                case '\f':
+                    esc = "\\f";
+                    break;
+                case '\n':
+                    esc = "\\n";
+                    break;
+                case '\r':
+                    esc = "\\r";
+                    break;
+                case '\t':
+                    esc = "\\t";
+                    break;
+                case '/':
+                    esc = "\\/";
+                    break;
+                default:
+                    esc = null;
+                    break;
+            }
+            boolean unicode = esc == null && (ch <= '\u001F' || (ch >= '\u007F' && ch <= '\u009F') || (ch >= '\u2000' && ch <= '\u20FF'));
+            if (esc == null && !unicode) {
+                continue;
+            }
+            out.append(str, start, i);
+            if (esc != null) {
+                out.append(esc);
+            } else {
+                out.append("\\u").append(HEX[(ch >> 12) & 0xF]).append(HEX[(ch >> 8) & 0xF])
+                        .append(HEX[(ch >> 4) & 0xF]).append(HEX[ch & 0xF]);
+            }
+            start = i + 1;
+        }
+        out.append(str, start, len);
+        out.append('"');
+    }
+
+    /**
+     * @return an appendable encoding the text as UTF-8 into the buffer
+     */
+    static Utf8Buffer utf8(ByteBuffer buf) {
+        return new Utf8Buffer(buf);
+    }
+
+    /**
+     * UTF-8 encoding view of a byte buffer. Writing past the limit throws
+     * {@link BufferOverflowException}.
+     */
+    static final class Utf8Buffer implements Appendable {
+
+        private final ByteBuffer buf;
+        private char highSurrogate;
+
+        Utf8Buffer(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+            for (int i = start; i < end; i++) {
+                append(csq.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            if (highSurrogate != 0) {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int cp = Character.toCodePoint(high, c);
+                    put((byte) (0xF0 | (cp >> 18)), (byte) (0x80 | ((cp >> 12) & 0x3F)),
+                            (byte) (0x80 | ((cp >> 6) & 0x3F)), (byte) (0x80 | (cp & 0x3F)));
+                    return this;
+                }
+                buf.put((byte) '?');
+            }
+            if (c < 0x80) {
+                buf.put((byte) c);
+            } else if (c < 0x800) {
+                put((byte) (0xC0 | (c >> 6)), (byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                buf.put((byte) '?');
+            } else {
+                put((byte) (0xE0 | (c >> 12)), (byte) (0x80 | ((c >> 6) & 0x3F)), (byte) (0x80 | (c & 0x3F)));
+            }
+            return this;
+        }
+
+        private void put(byte... bytes) {
+            if (buf.remaining() < bytes.length) {
+                throw new BufferOverflowException();
+            }
+            buf.put(bytes);
+        }
+
+        /**
+         * Write a pending unpaired high surrogate, as the UTF-8 encoder of
+         * {@code String.getBytes} does.
+         */
+        void finish() {
+            if (highSurrogate != 0) {
+                highSurrogate = 0;
+                buf.put((byte) '?');
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package org.agmip.tools.unithelper;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import ucar.units.ConversionException;
+import ucar.units.NoSuchUnitException;
+import ucar.units.PrefixDBException;
+import ucar.units.SpecificationException;
+import ucar.units.UnitDBException;
+import ucar.units.UnitParseException;
+import ucar.units.UnitSystemException;
+
+/**
+ * Converts large collections of values in parallel on a {@link ForkJoinPool}.
+ * The input is split into ranges of at least the leaf size, and every range
+ * is converted by one task, writing its results into the matching positions
+ * of the output, so the results keep the input order.
+ *
+ * <p>Each distinct unit pair of a batch is resolved once, and the conversion
+ * failures are reported per item with the status and message of
+ * {@link UnitConverter#convertToJsonObj(String, String, BigDecimal)} instead
+ * of failing the batch. The per-call {@link ConversionListener} events are not
+ * fired for the items of a batch.</p>
+ */
+public final class ParallelConverter {
+
+    private static final int DEFAULT_LEAF_SIZE = 4096;
+
+    private final ForkJoinPool pool;
+    private final int leafSize;
+
+    /**
+     * Converter running on the common pool.
+     */
+    public ParallelConverter() {
+        this(ForkJoinPool.commonPool(), DEFAULT_LEAF_SIZE);
+    }
+
+    public ParallelConverter(ForkJoinPool pool) {
+        this(pool, DEFAULT_LEAF_SIZE);
+    }
+
+    /**
+     * @param pool The pool running the conversion tasks
+     * @param leafSize The number of items below which a range is not split
+     * further
+     */
+    public ParallelConverter(ForkJoinPool pool, int leafSize) {
+        if (pool == null) {
+            throw new NullPointerException("pool");
+        }
+        if (leafSize <= 0) {
+            throw new IllegalArgumentException("Leaf size must be positive: " + leafSize);
+        }
+        this.pool = pool;
+        this.leafSize = leafSize;
+    }
+
+    public List<ConversionResult> convert(List<ConversionRequest> requests) {
+        return convert(requests, Function.identity());
+    }
+
+    public ConversionResult[] convert(ConversionRequest[] requests) {
+        return run(new RecordSpliterator(Arrays.asList(requests), 0, requests.length), Function.identity());
+    }
+
+    /**
+     * Convert the records of a list, which are mapped to their conversion
+     * requests by the given function. The function runs on the pool threads.
+     *
+     * @param records The records holding unit tagged values
+     * @param mapper Creates the conversion request of a record
+     * @return The results in the order of the records
+     */
+    public <T> List<ConversionResult> convert(List<T> records, Function<? super T, ConversionRequest> mapper) {
+        List<T> list = records instanceof RandomAccess ? records : Arrays.asList((T[]) records.toArray());
+        return Arrays.asList(run(new RecordSpliterator(list, 0, list.size()), mapper));
+    }
+
+    /**
+     * Convert the requests of a stream of unknown size on the pool. The
+     * stream is made parallel and its encounter order is kept.
+     *
+     * @param requests The conversion requests
+     * @return The results in the encounter order of the stream
+     */
+    public List<ConversionResult> convert(Stream<ConversionRequest> requests) {
+        PairResolver resolver = new PairResolver();
+        return pool.submit(() -> requests.parallel()
+                .map(resolver::convert)
+                .collect(Collectors.toList())).join();
+    }
+
+    /**
+     * Convert an array of values between one unit pair in parallel, see
+     * {@link ConversionPlan#convert(double[], double[])}.
+     *
+     * @param fromUnit The unit expression of the original values
+     * @param toUnit The unit expression of the target values
+     * @param src The original values
+     * @param dst The destination array, or null to allocate one
+     * @return The array holding the converted values
+     */
+    public double[] convert(String fromUnit, String toUnit, double[] src, double[] dst) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        ConversionPlan plan = UnitConverter.compile(fromUnit, toUnit);
+        if (dst == null) {
+            dst = new double[src.length];
+        } else if (dst.length < src.length) {
+            throw new IllegalArgumentException("Destination array is shorter than the source array");
+        }
+        pool.invoke(new ArrayTask(null, plan, src, dst, 0, src.length, leafSize));
+        return dst;
+    }
+
+    private <T> ConversionResult[] run(RecordSpliterator<T> records, Function<? super T, ConversionRequest> mapper) {
+        ConversionResult[] ret = new ConversionResult[(int) records.estimateSize()];
+        if (ret.length > 0) {
+            pool.invoke(new ConvertTask(null, records, mapper, new PairResolver(), ret, leafSize));
+        }
+        return ret;
+    }
+
+    /**
+     * Spliterator over a range of a random access list, splitting the range
+     * in halves. Sizes are exact after splitting, which lets each task know
+     * where its results go.
+     */
+    static final class RecordSpliterator<T> implements Spliterator<T> {
+
+        private final List<T> list;
+        private int origin;
+        private final int fence;
+
+        RecordSpliterator(List<T> list, int origin, int fence) {
+            this.list = list;
+            this.origin = origin;
+            this.fence = fence;
+        }
+
+        int origin() {
+            return origin;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (origin < fence) {
+                action.accept(list.get(origin++));
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            for (int i = origin; i < fence; i++) {
+                action.accept(list.get(i));
+            }
+            origin = fence;
+        }
+
+        @Override
+        public RecordSpliterator<T> trySplit() {
+            int mid = (origin + fence) >>> 1;
+            if (mid <= origin) {
+                return null;
+            }
+            RecordSpliterator<T> ret = new RecordSpliterator(list, origin, mid);
+            origin = mid;
+            return ret;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - origin;
+        }
+
+        @Override
+        public int characteristics() {
+            return SIZED | SUBSIZED | ORDERED;
+        }
+    }
+
+    /**
+     * Splits its range until it is no larger than the leaf size, forking the
+     * split off parts, then converts the rest in place.
+     */
+    private static final class ConvertTask<T> extends CountedCompleter<Void> {
+
+        private final RecordSpliterator<T> records;
+        private final Function<? super T, ConversionRequest> mapper;
+        private final PairResolver resolver;
+        private final ConversionResult[] results;
+        private final int leafSize;
+
+        ConvertTask(CountedCompleter<?> parent, RecordSpliterator<T> records, Function<? super T, ConversionRequest> mapper, PairResolver resolver, ConversionResult[] results, int leafSize) {
+            super(parent);
+            this.records = records;
+            this.mapper = mapper;
+            this.resolver = resolver;
+            this.results = results;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        public void compute() {
+            RecordSpliterator<T> split;
+            while (records.estimateSize() > leafSize && (split = records.trySplit()) != null) {
+                addToPendingCount(1);
+                new ConvertTask(this, split, mapper, resolver, results, leafSize).fork();
+            }
+            records.forEachRemaining(new Sink(records.origin()));
+            tryComplete();
+        }
+
+        private final class Sink implements Consumer<T> {
+
+            private final PairResolver.Cursor cursor = resolver.cursor();
+            private int pos;
+
+            Sink(int pos) {
+                this.pos = pos;
+            }
+
+            @Override
+            public void accept(T record) {
+                results[pos++] = cursor.convert(mapper.apply(record));
+            }
+        }
+    }
+
+    private static final class ArrayTask extends CountedCompleter<Void> {
+
+        private final ConversionPlan plan;
+        private final double[] src;
+        private final double[] dst;
+        private final int origin;
+        private int fence;
+        private final int leafSize;
+
+        ArrayTask(CountedCompleter<?> parent, ConversionPlan plan, double[] src, double[] dst, int origin, int fence, int leafSize) {
+            super(parent);
+            this.plan = plan;
+            this.src = src;
+            this.dst = dst;
+            this.origin = origin;
+            this.fence = fence;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        public void compute() {
+            while (fence - origin > leafSize) {
+                int mid = (origin + fence) >>> 1;
+                addToPendingCount(1);
+                new ArrayTask(this, plan, src, dst, mid, fence, leafSize).fork();
+                fence = mid;
+            }
+            plan.convert(src, origin, dst, origin, fence - origin);
+            tryComplete();
+        }
+    }
+
+    /**
+     * Resolves every distinct unit pair of one batch once and shares the plan,
+     * or the failure message, between the tasks.
+     */
+    static final class PairResolver {
+
+        private final ConcurrentHashMap<UnitPair, Resolved> pairs = new ConcurrentHashMap();
+
+        Resolved resolve(String fromUnit, String toUnit) {
+            if (fromUnit == null || toUnit == null) {
+                return Resolved.UNDEFINED;
+            }
+            return pairs.computeIfAbsent(new UnitPair(fromUnit, toUnit), key -> Resolved.of(fromUnit, toUnit));
+        }
+
+        ConversionResult convert(ConversionRequest request) {
+            return resolve(request.getFromUnit(), request.getToUnit()).convert(request);
+        }
+
+        int size() {
+            return pairs.size();
+        }
+
+        /**
+         * Single thread view which skips the shared map while consecutive
+         * requests use the same unit pair.
+         */
+        Cursor cursor() {
+            return new Cursor();
+        }
+
+        final class Cursor {
+
+            private String fromUnit;
+            private String toUnit;
+            private Resolved last;
+
+            ConversionResult convert(ConversionRequest request) {
+                String from = request.getFromUnit();
+                String to = request.getToUnit();
+                if (last == null || !Objects.equals(from, fromUnit) || !Objects.equals(to, toUnit)) {
+                    last = resolve(from, to);
+                    fromUnit = from;
+                    toUnit = to;
+                }
+                return last.convert(request);
+            }
+        }
+    }
+
+    static final class Resolved {
+
+        static final Resolved UNDEFINED = new Resolved(null, "undefined unit");
+
+        private final ConversionPlan plan;
+        private final String message;
+
+        private Resolved(ConversionPlan plan, String message) {
+            this.plan = plan;
+            this.message = message;
+        }
+
+        static Resolved of(String fromUnit, String toUnit) {
+            try {
+                return new Resolved(UnitConverter.compile(fromUnit, toUnit), null);
+            } catch (SpecificationException | UnitDBException | PrefixDBException | UnitSystemException | ConversionException ex) {
+                return new Resolved(null, ex.getMessage());
+            } catch (Exception ex) {
+                return UNDEFINED;
+            }
+        }
+
+        ConversionResult convert(ConversionRequest request) {
+            if (plan == null) {
+                return ConversionResult.failure(request, message);
+            }
+            try {
+                BigDecimal val = request.hasScale() ? plan.apply(request.getValue(), request.getScale()) : plan.apply(request.getValue());
+                return ConversionResult.success(request, val);
+            } catch (Exception ex) {
+                return ConversionResult.failure(request, "undefined unit");
+            }
+        }
+    }
+}
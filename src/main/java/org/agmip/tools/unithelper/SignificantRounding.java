@@ -0,0 +1,285 @@
+package org.agmip.tools.unithelper;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Rounding rule used for converted values: the result keeps the number of
+ * significant digits of the original value, plus one more digit when it is
+ * needed to tell the double value apart. The primitive implementation gives
+ * the same result as the BigDecimal one without allocating; values it cannot
+ * handle exactly fall back to the BigDecimal implementation.
+ */
+final class SignificantRounding {
+
+    private static final int MAX_PRECISION = 14;
+    private static final int MAX_POW = 22;
+    private static final double[] DOUBLE_POW10 = new double[MAX_POW + 1];
+    private static final long[] LONG_POW10 = new long[19];
+    private static final double TWO_POW_53 = 9007199254740992.0;
+    private static final double SPLIT = 134217729.0;
+    private static final long FALLBACK = -1;
+
+    static {
+        double d = 1;
+        for (int i = 0; i < DOUBLE_POW10.length; i++) {
+            DOUBLE_POW10[i] = d;
+            d *= 10;
+        }
+        long l = 1;
+        for (int i = 0; i < LONG_POW10.length; i++) {
+            LONG_POW10[i] = l;
+            l *= 10;
+        }
+    }
+
+    private SignificantRounding() {
+    }
+
+    /**
+     * Reference implementation of the rounding rule.
+     *
+     * @param result The converted value
+     * @param precision The number of significant digits of the original value
+     * @return The rounded converted value
+     */
+    static BigDecimal round(double result, int precision) {
+        BigDecimal ret = new BigDecimal(result);
+        int scale = ret.scale() + precision - ret.precision();
+        ret = ret.setScale(scale + 1, RoundingMode.HALF_UP);
+        BigDecimal alt = ret.setScale(scale, RoundingMode.HALF_UP);
+        while (ret.doubleValue() == alt.doubleValue()) {
+            ret = alt;
+            if (scale > 0) {
+                scale--;
+                alt = alt.setScale(scale, RoundingMode.HALF_UP);
+            } else {
+                break;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @param result The converted value
+     * @param precision The number of significant digits of the original value
+     * @return The rounded converted value, equal to
+     * {@code round(result, precision).doubleValue()}
+     */
+    static double roundToDouble(double result, int precision) {
+        long packed = roundPacked(result, precision);
+        if (packed == FALLBACK) {
+            return round(result, precision).doubleValue();
+        }
+        double ret = toDouble(unscaledOf(packed), scaleOf(packed));
+        return result < 0 ? -ret : ret;
+    }
+
+    /**
+     * Append the rounded value in plain notation, the same text as
+     * {@code round(result, precision).toPlainString()}.
+     *
+     * @param result The converted value
+     * @param precision The number of significant digits of the original value
+     * @param out The destination of the text
+     */
+    static void append(double result, int precision, StringBuilder out) {
+        try {
+            append(result, precision, (Appendable) out);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static void append(double result, int precision, Appendable out) throws IOException {
+        long packed = roundPacked(result, precision);
+        if (packed == FALLBACK) {
+            out.append(round(result, precision).toPlainString());
+            return;
+        }
+        long unscaled = unscaledOf(packed);
+        int scale = scaleOf(packed);
+        if (result < 0 && unscaled != 0) {
+            out.append('-');
+        }
+        if (scale <= 0) {
+            appendDigits(unscaled, out);
+            if (unscaled != 0) {
+                for (int i = scale; i < 0; i++) {
+                    out.append('0');
+                }
+            }
+        } else if (scale >= LONG_POW10.length || unscaled < LONG_POW10[scale]) {
+            out.append('0').append('.');
+            for (int i = digitCount(unscaled); i < scale; i++) {
+                out.append('0');
+            }
+            appendDigits(unscaled, out);
+        } else {
+            appendDigits(unscaled / LONG_POW10[scale], out);
+            out.append('.');
+            long fraction = unscaled % LONG_POW10[scale];
+            for (int i = digitCount(fraction); i < scale; i++) {
+                out.append('0');
+            }
+            if (fraction != 0) {
+                appendDigits(fraction, out);
+            }
+        }
+    }
+
+    /**
+     * Apply the rounding rule to the magnitude of the value.
+     *
+     * @return the unscaled magnitude and the scale of the result packed into
+     * one long, or {@link #FALLBACK}
+     */
+    private static long roundPacked(double result, int precision) {
+        if (precision < 1 || precision > MAX_PRECISION
+                || Double.isNaN(result) || Double.isInfinite(result)) {
+            return FALLBACK;
+        }
+        double a = Math.abs(result);
+        if (a == 0) {
+            return pack(0, 0);
+        }
+        int e = (int) Math.floor(Math.log10(a));
+        for (int tries = 0; tries < 3; tries++) {
+            int k = precision - e;
+            long lower = LONG_POW10[precision];
+            long n;
+            if (k >= 0) {
+                if (k > MAX_POW) {
+                    return FALLBACK;
+                }
+                double b = DOUBLE_POW10[k];
+                double hi = a * b;
+                double lo = twoProductError(a, b, hi);
+                if (compare(hi, lo, lower) < 0) {
+                    e--;
+                    continue;
+                } else if (compare(hi, lo, lower * 10) >= 0) {
+                    e++;
+                    continue;
+                }
+                double fl = Math.floor(hi);
+                double d = hi - fl;
+                n = (long) fl;
+                if (d > 0.5 || (d == 0.5 && lo >= 0)) {
+                    n++;
+                }
+            } else {
+                if (a >= TWO_POW_53 || -k >= LONG_POW10.length) {
+                    return FALLBACK;
+                }
+                long whole = (long) a;
+                long div = LONG_POW10[-k];
+                if (whole < lower * div) {
+                    e--;
+                    continue;
+                } else if (whole / div >= lower * 10) {
+                    e++;
+                    continue;
+                }
+                n = whole / div;
+                if (whole % div >= div / 2) {
+                    n++;
+                }
+            }
+            return reduce(n, k);
+        }
+        return FALLBACK;
+    }
+
+    /**
+     * Drop trailing digits while the double value does not change, the same
+     * way as the loop of {@link #round(double, int)}.
+     */
+    private static long reduce(long n, int k) {
+        if (k > MAX_POW || k - 1 < -MAX_POW) {
+            return FALLBACK;
+        }
+        int retScale = k;
+        long ret = n;
+        int scale = k - 1;
+        long alt = halfUpDivide10(ret);
+        while (toDouble(ret, retScale) == toDouble(alt, scale)) {
+            ret = alt;
+            retScale = scale;
+            if (scale > 0) {
+                scale--;
+                alt = halfUpDivide10(alt);
+            } else {
+                break;
+            }
+        }
+        return pack(ret, retScale);
+    }
+
+    private static long halfUpDivide10(long n) {
+        return (n + 5) / 10;
+    }
+
+    /**
+     * Same value as BigDecimal.doubleValue() for an unscaled value below
+     * 2^52 and a scale within the exact powers of ten.
+     */
+    private static double toDouble(long unscaled, int scale) {
+        if (scale >= 0) {
+            return unscaled / DOUBLE_POW10[scale];
+        }
+        return unscaled * DOUBLE_POW10[-scale];
+    }
+
+    /**
+     * @return the rounding error of {@code hi = a * b}, so that a * b equals
+     * hi + error exactly
+     */
+    private static double twoProductError(double a, double b, double hi) {
+        double t = SPLIT * a;
+        double ah = t - (t - a);
+        double al = a - ah;
+        t = SPLIT * b;
+        double bh = t - (t - b);
+        double bl = b - bh;
+        return ((ah * bh - hi) + ah * bl + al * bh) + al * bl;
+    }
+
+    /**
+     * Compare the exact value hi + lo with an integer below 2^53.
+     */
+    private static int compare(double hi, double lo, long value) {
+        double v = value;
+        if (hi != v) {
+            return hi < v ? -1 : 1;
+        }
+        return lo < 0 ? -1 : (lo > 0 ? 1 : 0);
+    }
+
+    private static long pack(long unscaled, int scale) {
+        return (unscaled << 6) | (scale + 32);
+    }
+
+    private static long unscaledOf(long packed) {
+        return packed >>> 6;
+    }
+
+    private static int scaleOf(long packed) {
+        return (int) (packed & 63) - 32;
+    }
+
+    private static int digitCount(long n) {
+        int ret = 1;
+        while (ret < LONG_POW10.length && n >= LONG_POW10[ret]) {
+            ret++;
+        }
+        return ret;
+    }
+
+    private static void appendDigits(long n, Appendable out) throws IOException {
+        for (int i = digitCount(n) - 1; i >= 0; i--) {
+            out.append((char) ('0' + (n / LONG_POW10[i]) % 10));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.agmip.tools.unithelper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import org.agmip.tools.unithelper.UnitConverter.UNIT_TYPE;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import ucar.units.Unit;
+import ucar.units.UnitDB;
+
+/**
+ * Immutable index of the units in the unit database grouped by base unit
+ * type, with the JSON listing of each type serialized in advance.
+ */
+final class UnitCatalog {
+
+    private final EnumMap<UNIT_TYPE, List<Unit>> units = new EnumMap(UNIT_TYPE.class);
+    private final EnumMap<UNIT_TYPE, JSONArray> jsonArrays = new EnumMap(UNIT_TYPE.class);
+    private final EnumMap<UNIT_TYPE, String> jsonStrings = new EnumMap(UNIT_TYPE.class);
+    private final EnumMap<UNIT_TYPE, byte[]> jsonBytes = new EnumMap(UNIT_TYPE.class);
+
+    private UnitCatalog() {
+    }
+
+    static UnitCatalog build(UnitDB db) {
+        UnitCatalog ret = new UnitCatalog();
+        EnumMap<UNIT_TYPE, ArrayList<Unit>> lists = new EnumMap(UNIT_TYPE.class);
+        for (UNIT_TYPE type : UNIT_TYPE.values()) {
+            lists.put(type, new ArrayList());
+        }
+        if (db != null) {
+            Iterator it = db.getIterator();
+            while (it.hasNext()) {
+                Unit unit = (Unit) it.next();
+                UNIT_TYPE type = UNIT_TYPE.exactCodeOf(unit.getDerivedUnit().getQuantityDimension().toString());
+                if (type != null) {
+                    lists.get(type).add(unit);
+                }
+            }
+        }
+        for (UNIT_TYPE type : UNIT_TYPE.values()) {
+            List<Unit> list = lists.get(type);
+            JSONArray arr = new JSONArray();
+            for (Unit unit : list) {
+                JSONObject data = new JSONObject();
+                data.put("name", unit.getName());
+                data.put("type", type.toString());
+                data.put("type_code", type.getCode());
+                data.put("expression", unit.getCanonicalString());
+                if (unit.getSymbol() == null) {
+                    data.put("symbol", unit.getName().replaceAll("\\s", "_"));
+                } else {
+                    data.put("symbol", unit.getSymbol());
+                }
+                arr.add(data);
+            }
+            ret.units.put(type, Collections.unmodifiableList(list));
+            ret.jsonArrays.put(type, arr);
+            String json = arr.toJSONString();
+            ret.jsonStrings.put(type, json);
+            ret.jsonBytes.put(type, json.getBytes(StandardCharsets.UTF_8));
+        }
+        return ret;
+    }
+
+    List<Unit> getUnits(UNIT_TYPE type) {
+        return units.get(type);
+    }
+
+    JSONArray getJsonArray(UNIT_TYPE type) {
+        return jsonArrays.get(type);
+    }
+
+    String getJsonString(UNIT_TYPE type) {
+        return jsonStrings.get(type);
+    }
+
+    byte[] getJsonBytes(UNIT_TYPE type) {
+        return jsonBytes.get(type);
+    }
+}
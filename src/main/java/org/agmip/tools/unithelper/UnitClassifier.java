@@ -0,0 +1,280 @@
+package org.agmip.tools.unithelper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.agmip.tools.unithelper.UnitConverter.UNIT_TYPE;
+import ucar.units.Unit;
+
+/**
+ * Memoized classification of unit strings by quantity dimension. The first
+ * call for a unit string resolves its dimension, description and canonical
+ * expression; later calls for the same string, or for any string with the
+ * same normalized expression, are answered from LRU caches.
+ * {@link UnitConverter#getDescp(String)} and
+ * {@link UnitConverter#getCategory(String)} are answered through these
+ * caches.
+ *
+ * <p>Results are kept by the unit string as given and by its normalized
+ * expression, in two caches of {@value #MAX_ENTRIES} entries each. The
+ * strings of the ICASA unit dictionary are resolved as they are, so they are
+ * checked before the normalized cache and never stored in it. The caches are
+ * cleared with the unit caches and when an alias or a dictionary entry is
+ * added.</p>
+ */
+public final class UnitClassifier {
+
+    static final int MAX_ENTRIES = 4096;
+
+    private static final BoundedCache<String, Classification> RAW = new BoundedCache(MAX_ENTRIES);
+    private static final BoundedCache<String, Classification> NORMALIZED = new BoundedCache(MAX_ENTRIES);
+    private static volatile int generation;
+
+    private UnitClassifier() {
+    }
+
+    /**
+     * @param unitStr The unit expression, ICASA comments allowed
+     * @return The classification of the unit string
+     */
+    public static Classification classify(String unitStr) {
+        if (unitStr == null) {
+            return compute(null, null);
+        }
+        Classification ret = RAW.get(unitStr);
+        if (ret != null) {
+            return ret;
+        }
+        int gen = generation;
+        String name = UnitConverter.preParsing(unitStr);
+        if (UnitDictionary.get(unitStr) != null) {
+            ret = compute(unitStr, name);
+            publish(unitStr, null, ret, gen);
+            return ret;
+        }
+        ret = NORMALIZED.get(name);
+        if (ret == null) {
+            ret = compute(unitStr, name);
+            publish(unitStr, name, ret, gen);
+        } else {
+            publish(unitStr, null, ret, gen);
+        }
+        return ret;
+    }
+
+    /**
+     * Classify all the unit strings.
+     *
+     * @param unitStrs The unit expressions, for example the unit headers of a
+     * data file
+     * @return The classification of each distinct unit string, in the order
+     * of the collection
+     */
+    public static Map<String, Classification> classifyAll(Collection<String> unitStrs) {
+        LinkedHashMap<String, Classification> ret = new LinkedHashMap();
+        for (String unitStr : unitStrs) {
+            if (unitStr != null && !ret.containsKey(unitStr)) {
+                ret.put(unitStr, classify(unitStr));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Group the valid unit strings by dimension and conversion base. The
+     * units of a group all convert to the base, so a batch conversion of the
+     * group only needs the base and one factor per unit.
+     *
+     * @param unitStrs The unit expressions
+     * @return The groups in the order of their first unit in the collection
+     */
+    public static List<DimensionGroup> groupByDimension(Collection<String> unitStrs) {
+        LinkedHashMap<String, DimensionGroup> groups = new LinkedHashMap();
+        for (Map.Entry<String, Classification> entry : classifyAll(unitStrs).entrySet()) {
+            Classification c = entry.getValue();
+            if (!c.isValid()) {
+                continue;
+            }
+            String key = c.getDimension() + " " + c.getBase();
+            DimensionGroup group = groups.get(key);
+            if (group == null) {
+                group = new DimensionGroup(c.getDimension(), c.getType(), c.getBase());
+                groups.put(key, group);
+            }
+            group.units.add(entry.getKey());
+        }
+        return new ArrayList(groups.values());
+    }
+
+    /**
+     * @return the number of unit strings in the cache
+     */
+    public static int size() {
+        return RAW.stats().getSize();
+    }
+
+    static synchronized void clear() {
+        generation++;
+        RAW.clear();
+        NORMALIZED.clear();
+    }
+
+    /**
+     * Cache a result unless the caches were cleared since the given
+     * generation, which would make it stale.
+     *
+     * @param name The normalized expression to cache the result under, or
+     * null to cache it under the unit string only
+     */
+    private static synchronized void publish(String unitStr, String name, Classification c, int gen) {
+        if (gen != generation) {
+            return;
+        }
+        if (name != null) {
+            NORMALIZED.put(name, c);
+        }
+        RAW.put(unitStr, c);
+    }
+
+    private static Classification compute(String unitStr, String name) {
+        String descp = UnitConverter.computeDescp(unitStr);
+        String dimension = UnitConverter.computeCategory(unitStr);
+        UnitLookup lookup = UnitConverter.lookup(unitStr);
+        String expression = "";
+        String base = "";
+        Unit unit = lookup.getUnit();
+        if (unit != null) {
+            try {
+                expression = unit.getCanonicalString();
+                base = unit.getDerivedUnit().getCanonicalString();
+            } catch (Exception ex) {
+                expression = "";
+                base = "";
+            }
+        }
+        return new Classification(name, dimension, descp, expression, base, lookup.isParsed());
+    }
+
+    /**
+     * Dimension, description and canonical expression of a unit string.
+     */
+    public static final class Classification {
+
+        private final String name;
+        private final String dimension;
+        private final String descp;
+        private final String expression;
+        private final String base;
+        private final boolean valid;
+
+        Classification(String name, String dimension, String descp, String expression, String base, boolean valid) {
+            this.name = name;
+            this.dimension = dimension;
+            this.descp = descp;
+            this.expression = expression;
+            this.base = base;
+            this.valid = valid;
+        }
+
+        /**
+         * @return the normalized unit expression
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the dimension code, the same as
+         * {@link UnitConverter#getCategory(String)}
+         */
+        public String getDimension() {
+            return dimension;
+        }
+
+        /**
+         * @return the unit type of the dimension, or null if the dimension is
+         * not one of the listed unit types
+         */
+        public UNIT_TYPE getType() {
+            return UNIT_TYPE.exactCodeOf(dimension);
+        }
+
+        /**
+         * @return the description, the same as
+         * {@link UnitConverter#getDescp(String)}
+         */
+        public String getDescp() {
+            return descp;
+        }
+
+        /**
+         * @return the canonical expression of the parsed unit, or an empty
+         * string for an invalid unit
+         */
+        public String getExpression() {
+            return expression;
+        }
+
+        /**
+         * @return the canonical expression of the SI unit the unit converts
+         * to, or an empty string for an invalid unit
+         */
+        public String getBase() {
+            return base;
+        }
+
+        public boolean isValid() {
+            return valid;
+        }
+
+        @Override
+        public String toString() {
+            return name + " [" + dimension + "] " + expression;
+        }
+    }
+
+    /**
+     * Unit strings of a collection which share a dimension and conversion
+     * base.
+     */
+    public static final class DimensionGroup {
+
+        private final String dimension;
+        private final UNIT_TYPE type;
+        private final String base;
+        private final List<String> units = new ArrayList();
+
+        DimensionGroup(String dimension, UNIT_TYPE type, String base) {
+            this.dimension = dimension;
+            this.type = type;
+            this.base = base;
+        }
+
+        public String getDimension() {
+            return dimension;
+        }
+
+        /**
+         * @return the unit type of the dimension, or null
+         */
+        public UNIT_TYPE getType() {
+            return type;
+        }
+
+        public String getBase() {
+            return base;
+        }
+
+        public List<String> getUnits() {
+            return Collections.unmodifiableList(units);
+        }
+
+        @Override
+        public String toString() {
+            return dimension + " (" + base + "): " + units;
+        }
+    }
+}
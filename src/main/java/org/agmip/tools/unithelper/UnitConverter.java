@@ -1,11 +1,23 @@
 package org.agmip.tools.unithelper;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.math.MathContext;
 import java.math.RoundingMode;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import static org.agmip.tools.unithelper.UnitConverter.UNIT_TYPE.values;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.agmip.tools.unithelper.ConversionListener.Operation;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import ucar.units.BaseUnit;
@@ -32,6 +44,13 @@ import ucar.units.UnknownUnit;
  * Utility class which contains a collection of static method used for unit
  * conversion.
  *
+ * <p>All methods are safe for concurrent use. Parsed units and conversion
+ * plans are shared between threads through segmented caches; only a cache
+ * miss, which has to run the UDUnits parser, is serialized.</p>
+ *
+ * <p>Calls can be observed with a {@link ConversionListener}, for example the
+ * JMX metrics of {@link ConversionMetrics}.</p>
+ *
  * @author Meng Zhang
  */
 public class UnitConverter {
@@ -57,60 +76,130 @@ public class UnitConverter {
             return this.code;
         }
         
-        public static UNIT_TYPE codeOf(String code) {
-            if (code == null) {
-                return UNKNOWN;
-            }
+        private static final HashMap<String, UNIT_TYPE> CODES = new HashMap();
+
+        static {
             for (UNIT_TYPE type : values()) {
-                if (type.getCode().equals(code)) {
-                    return type;
-                }
+                CODES.put(type.getCode(), type);
             }
-            return UNKNOWN;
+        }
+
+        public static UNIT_TYPE codeOf(String code) {
+            UNIT_TYPE ret = exactCodeOf(code);
+            return ret == null ? UNKNOWN : ret;
+        }
+
+        static UNIT_TYPE exactCodeOf(String code) {
+            return code == null ? null : CODES.get(code);
         }
     }
 
-    private static final HashMap<String, String> AGMIP_UNIT = new HashMap();
-    private static final UnitFormat PARSER = initParser();
-    private static final UnitDB DB = initDB();
-    private static final PrefixDB PREFIX_DB = initPrefixDB();
+    private static final Map<String, String> AGMIP_UNIT = initAgmipUnit();
     private static final HashMap<String, String> BASE_UNIT_MAP = initBaseUnitMap();
-    private static final JSONArray PREFIX_LIST = initPrefixInfo();
-    private static final String PREFIX_LIST_JSON = PREFIX_LIST.toJSONString();
-    private static final String[] SPLITTER = {"/", "\\.", "\\*"};
-    private static final String[] ICASA_SPECIAL = {"100g"};
+    private static final int DEFAULT_CACHE_SIZE = Integer.getInteger("unithelper.cache.size", 1024);
+    private static final BoundedCache<String, Unit> UNIT_CACHE = new BoundedCache(DEFAULT_CACHE_SIZE);
+    private static final BoundedCache<UnitPair, ConversionPlan> PLAN_CACHE = new BoundedCache(DEFAULT_CACHE_SIZE);
+    private static final BoundedCache<String, UnitLookup> INVALID_CACHE = new BoundedCache(DEFAULT_CACHE_SIZE);
+    // Guards the UDUnits parser and the unit database, which are not safe for
+    // concurrent use; only cache misses and alias updates take it
+    private static final Object DB_LOCK = new Object();
+    private static volatile UnitCatalog catalog;
+    private static volatile ConversionListener listener;
+    private static final UnitSymbolTable SYMBOLS = new UnitSymbolTable();
 
     private UnitConverter() {
     }
+
+    /**
+     * Holder of the unit database, loaded on first use. The database is built
+     * from the catalog snapshot when one is enabled, see
+     * {@link CatalogSnapshot}, otherwise from the UDUnits XML files.
+     */
+    private static final class DbHolder {
+
+        static final UnitDB DB = initDB();
+    }
+
+    /**
+     * Holder of the unit parser, which resolves names in the unit database.
+     */
+    private static final class ParserHolder {
+
+        static final UnitFormat PARSER = initParser();
+    }
+
+    /**
+     * Holder of the prefix database and its JSON listing.
+     */
+    private static final class PrefixHolder {
+
+        static final PrefixDB PREFIX_DB = initPrefixDB();
+        static final JSONArray PREFIX_LIST = initPrefixInfo(PREFIX_DB);
+        static final String PREFIX_LIST_JSON = PREFIX_LIST.toJSONString();
+        static final byte[] PREFIX_LIST_BYTES = PREFIX_LIST_JSON.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> initAgmipUnit() {
+        Map<String, String> ret = new ConcurrentHashMap();
+        ret.put("number", "count");
+        ret.put("dap", "day");
+        ret.put("doy", "day");
+        ret.put("decimal_degree", "degree");
+        ret.put("fraction", "1");
+        ret.put("unitless", "1");
+        ret.put("ratio", "1");
+        return ret;
+    }
     
     private static UnitDB initDB() {
         try {
+            CatalogSnapshot.loadIfEnabled();
             UnitDB DB_ret = UnitDBManager.instance();
-            AGMIP_UNIT.put("number", "count");
-            AGMIP_UNIT.put("dap", "day");
-            AGMIP_UNIT.put("doy", "day");
-            AGMIP_UNIT.put("decimal_degree", "degree");
-            AGMIP_UNIT.put("fraction", "1");
-            AGMIP_UNIT.put("unitless", "1");
-            AGMIP_UNIT.put("ratio", "1");
             try {
                 for (String key : AGMIP_UNIT.keySet()) {
                     DB_ret.addAlias(key, AGMIP_UNIT.get(key));
                 }
             } catch (UnitDBException | NoSuchUnitException | NameException ex) {
-                System.err.println(ex.getMessage());
+                reportInitError("alias", ex);
             }
+            WarmupSnapshot.loadIfEnabled(DB_ret);
             return DB_ret;
         } catch (UnitDBException ex) {
-            System.err.println(ex.getMessage());
+            reportInitError("unit database", ex);
             return null;
         }
     }
     
     private static UnitFormat initParser() {
+        // The AgMIP aliases have to be in the unit database before parsing
+        if (DbHolder.DB == null) {
+            reportInitError("parser", new IllegalStateException("Unit database is not available, AgMIP aliases are not registered"));
+        }
         return UnitFormatManager.instance();
     }
     
+    static void reportInitError(String stage, Exception ex) {
+        System.err.println(ex.getMessage());
+        ConversionListener l = listener;
+        if (l != null) {
+            l.initFailed(stage, ex);
+        }
+    }
+
+    /**
+     * Install the listener which receives the instrumentation events of this
+     * class, replacing the previous one.
+     *
+     * @param l The listener, or null to turn the instrumentation off
+     */
+    public static void setListener(ConversionListener l) {
+        listener = l;
+    }
+
+    public static ConversionListener getListener() {
+        return listener;
+    }
+    
     public static HashMap<String, String> initBaseUnitMap() {
         HashMap<String, String> ret = new HashMap();
         for (UNIT_TYPE type : UNIT_TYPE.values()) {
@@ -123,6 +212,14 @@ public class UnitConverter {
         return BASE_UNIT_MAP;
     }
 
+    /**
+     * @return the AgMIP unit names added as aliases to the unit database,
+     * including the ones added with {@link #addAlias(String, String)}
+     */
+    static Set<String> getAgmipAliases() {
+        return new HashSet(AGMIP_UNIT.keySet());
+    }
+
     public static BigDecimal convert(String fromUnit, String toUnit, String val) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
         return convert(fromUnit, toUnit, new BigDecimal(val));
     }
@@ -132,28 +229,527 @@ public class UnitConverter {
     }
 
     public static BigDecimal convert(String fromUnit, String toUnit, BigDecimal val) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
-        Unit from = PARSER.parse(preParsing(fromUnit));
-        Unit to = PARSER.parse(preParsing(toUnit));
-        BigDecimal ret = new BigDecimal(from.convertTo(val.doubleValue(), to));
-        int scale = ret.scale() + val.precision() - ret.precision();
-        ret = ret.setScale(scale + 1, RoundingMode.HALF_UP);
-        BigDecimal alt = ret.setScale(scale, RoundingMode.HALF_UP);
-        while (ret.doubleValue() == alt.doubleValue()) {
-            ret = alt;
-            if (scale > 0) {
-                scale--;
-                alt = alt.setScale(scale, RoundingMode.HALF_UP);
-            } else {
-                break;
+        ConversionListener l = listener;
+        if (l == null) {
+            return compile(fromUnit, toUnit).apply(val);
+        }
+        long start = System.nanoTime();
+        try {
+            BigDecimal ret = compile(fromUnit, toUnit).apply(val);
+            l.called(Operation.CONVERT, fromUnit, toUnit, System.nanoTime() - start, null);
+            return ret;
+        } catch (Exception ex) {
+            l.called(Operation.CONVERT, fromUnit, toUnit, System.nanoTime() - start, ex);
+            throw ex;
+        }
+    }
+
+    public static BigDecimal convert(String fromUnit, String toUnit, BigDecimal val, int scale) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        ConversionListener l = listener;
+        if (l == null) {
+            return compile(fromUnit, toUnit).apply(val, scale);
+        }
+        long start = System.nanoTime();
+        try {
+            BigDecimal ret = compile(fromUnit, toUnit).apply(val, scale);
+            l.called(Operation.CONVERT, fromUnit, toUnit, System.nanoTime() - start, null);
+            return ret;
+        } catch (Exception ex) {
+            l.called(Operation.CONVERT, fromUnit, toUnit, System.nanoTime() - start, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Convert the value in decimal arithmetic with the exact scale and offset
+     * of the conversion, rounded once to the given context, see
+     * {@link ConversionPlan#applyExact(BigDecimal, MathContext)}. Unlike
+     * {@link #convert(String, String, BigDecimal)}, the result does not go
+     * through a double, so converting 1.5 g/cm3 to kg/m3 gives 1500.0.
+     *
+     * @param fromUnit The unit expression of the original value
+     * @param toUnit The unit expression of the target value
+     * @param val The value in the original unit
+     * @param mc The precision and rounding of the result
+     * @return The value in the target unit
+     */
+    public static BigDecimal convertExact(String fromUnit, String toUnit, BigDecimal val, MathContext mc) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        ConversionListener l = listener;
+        if (l == null) {
+            return compile(fromUnit, toUnit).applyExact(val, mc);
+        }
+        long start = System.nanoTime();
+        try {
+            BigDecimal ret = compile(fromUnit, toUnit).applyExact(val, mc);
+            l.called(Operation.CONVERT, fromUnit, toUnit, System.nanoTime() - start, null);
+            return ret;
+        } catch (Exception ex) {
+            l.called(Operation.CONVERT, fromUnit, toUnit, System.nanoTime() - start, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Convert the value and keep the significant digits of the original value
+     * with the same rule as {@link #convert(String, String, BigDecimal)},
+     * without creating BigDecimal objects.
+     *
+     * @param fromUnit The unit expression of the original value
+     * @param toUnit The unit expression of the target value
+     * @param val The original value
+     * @param precision The number of significant digits of the original value
+     * @return The converted value
+     */
+    public static double convertSignificant(String fromUnit, String toUnit, double val, int precision) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        return compile(fromUnit, toUnit).applySignificant(val, precision);
+    }
+
+    /**
+     * Convert the value and append it in plain notation to the given builder,
+     * the same text as {@code convert(fromUnit, toUnit, val).toPlainString()}.
+     *
+     * @param fromUnit The unit expression of the original value
+     * @param toUnit The unit expression of the target value
+     * @param val The original value
+     * @param precision The number of significant digits of the original value
+     * @param out The destination of the converted value
+     */
+    public static void convertSignificant(String fromUnit, String toUnit, double val, int precision, StringBuilder out) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        compile(fromUnit, toUnit).appendSignificant(val, precision, out);
+    }
+
+    public static void convertSignificant(String fromUnit, String toUnit, double val, int precision, Appendable out) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException, IOException {
+        compile(fromUnit, toUnit).appendSignificant(val, precision, out);
+    }
+
+    public static double[] convert(String fromUnit, String toUnit, double[] src) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        return compile(fromUnit, toUnit).convert(src, null);
+    }
+
+    public static double[] convert(String fromUnit, String toUnit, double[] src, double[] dst) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        return compile(fromUnit, toUnit).convert(src, dst);
+    }
+
+    public static double[] convert(String fromUnit, String toUnit, double[] src, int srcPos, double[] dst, int dstPos, int length) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        return compile(fromUnit, toUnit).convert(src, srcPos, dst, dstPos, length);
+    }
+
+    public static void convert(String fromUnit, String toUnit, DoubleBuffer src, DoubleBuffer dst) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        compile(fromUnit, toUnit).convert(src, dst);
+    }
+
+    /**
+     * Resolve the conversion between two unit expressions once, so it can be
+     * applied to many values. Plans are cached by unit pair. A plan is only
+     * cached if the caches were not cleared while it was resolved, so a plan
+     * from before {@link #addAlias(String, String)} never comes back.
+     *
+     * @param fromUnit The unit expression of the original value
+     * @param toUnit The unit expression of the target value
+     * @return The reusable conversion plan
+     */
+    public static ConversionPlan compile(String fromUnit, String toUnit) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        UnitPair key = new UnitPair(fromUnit, toUnit);
+        ConversionPlan ret = PLAN_CACHE.get(key);
+        if (ret == null) {
+            int gen = SYMBOLS.generation();
+            ret = new ConversionPlan(fromUnit, toUnit, parseUnit(fromUnit).getConverterTo(parseUnit(toUnit)));
+            synchronized (DB_LOCK) {
+                if (gen == SYMBOLS.generation()) {
+                    PLAN_CACHE.put(key, ret);
+                }
             }
         }
         return ret;
     }
 
-    public static BigDecimal convert(String fromUnit, String toUnit, BigDecimal val, int scale) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
-        Unit from = PARSER.parse(preParsing(fromUnit));
-        Unit to = PARSER.parse(preParsing(toUnit));
-        return new BigDecimal(from.convertTo(val.doubleValue(), to)).setScale(scale, RoundingMode.HALF_UP);
+    /**
+     * Intern the unit string and return its ID. Unit strings which normalize
+     * to the same expression get the same ID, and an ID stays valid for the
+     * life of the JVM. Invalid unit strings get an ID as well; converting
+     * with it fails like converting with the string. Every distinct string
+     * passed here is kept by the symbol table for the life of the JVM, even
+     * after {@link #clearCache()}, so IDs are meant for a bounded set of unit
+     * strings such as the headers of data files.
+     *
+     * @param unitStr The unit expression, ICASA comments allowed
+     * @return The unit ID
+     */
+    public static int getUnitId(String unitStr) {
+        if (unitStr == null) {
+            throw new NullPointerException("unitStr");
+        }
+        return SYMBOLS.idOf(unitStr);
+    }
+
+    /**
+     * @param unitId The unit ID from {@link #getUnitId(String)}
+     * @return The normalized unit expression of the ID
+     */
+    public static String getUnitString(int unitId) {
+        return SYMBOLS.nameOf(unitId);
+    }
+
+    public static UnitLookup lookup(int unitId) {
+        UnitLookup ret = SYMBOLS.resolve(unitId).lookup;
+        if (ret == null) {
+            ret = lookup(SYMBOLS.sourceOf(unitId));
+        }
+        return ret;
+    }
+
+    /**
+     * Resolve the conversion between two unit IDs. The result of each pair,
+     * including a failure, is kept in a primitive keyed table, so repeated
+     * calls do not touch the unit strings. A failed pair throws a new
+     * exception on every call.
+     *
+     * @param fromId The unit ID of the original value
+     * @param toId The unit ID of the target value
+     * @return The reusable conversion plan
+     */
+    public static ConversionPlan compile(int fromId, int toId) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        Object ret = SYMBOLS.getPair(fromId, toId);
+        if (ret == null) {
+            int gen = SYMBOLS.generation();
+            try {
+                ret = compile(SYMBOLS.sourceOf(fromId), SYMBOLS.sourceOf(toId));
+            } catch (ConversionException ex) {
+                ret = new UnitSymbolTable.Failure(ex, lookup(fromId).getUnit(), lookup(toId).getUnit());
+            } catch (SpecificationException | UnitDBException | PrefixDBException | UnitSystemException ex) {
+                ret = new UnitSymbolTable.Failure(ex);
+            }
+            SYMBOLS.putPair(fromId, toId, ret, gen);
+        }
+        if (ret instanceof ConversionPlan) {
+            return (ConversionPlan) ret;
+        }
+        Exception ex = ((UnitSymbolTable.Failure) ret).newException();
+        if (ex instanceof SpecificationException) {
+            throw (SpecificationException) ex;
+        } else if (ex instanceof UnitDBException) {
+            throw (UnitDBException) ex;
+        } else if (ex instanceof PrefixDBException) {
+            throw (PrefixDBException) ex;
+        } else if (ex instanceof UnitSystemException) {
+            throw (UnitSystemException) ex;
+        } else if (ex instanceof ConversionException) {
+            throw (ConversionException) ex;
+        } else {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public static BigDecimal convert(int fromId, int toId, BigDecimal val) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        ConversionListener l = listener;
+        if (l == null) {
+            return compile(fromId, toId).apply(val);
+        }
+        long start = System.nanoTime();
+        try {
+            BigDecimal ret = compile(fromId, toId).apply(val);
+            l.called(Operation.CONVERT, SYMBOLS.sourceOf(fromId), SYMBOLS.sourceOf(toId), System.nanoTime() - start, null);
+            return ret;
+        } catch (Exception ex) {
+            l.called(Operation.CONVERT, SYMBOLS.sourceOf(fromId), SYMBOLS.sourceOf(toId), System.nanoTime() - start, ex);
+            throw ex;
+        }
+    }
+
+    public static BigDecimal convert(int fromId, int toId, BigDecimal val, int scale) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        ConversionListener l = listener;
+        if (l == null) {
+            return compile(fromId, toId).apply(val, scale);
+        }
+        long start = System.nanoTime();
+        try {
+            BigDecimal ret = compile(fromId, toId).apply(val, scale);
+            l.called(Operation.CONVERT, SYMBOLS.sourceOf(fromId), SYMBOLS.sourceOf(toId), System.nanoTime() - start, null);
+            return ret;
+        } catch (Exception ex) {
+            l.called(Operation.CONVERT, SYMBOLS.sourceOf(fromId), SYMBOLS.sourceOf(toId), System.nanoTime() - start, ex);
+            throw ex;
+        }
+    }
+
+    public static BigDecimal convertExact(int fromId, int toId, BigDecimal val, MathContext mc) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        ConversionListener l = listener;
+        if (l == null) {
+            return compile(fromId, toId).applyExact(val, mc);
+        }
+        long start = System.nanoTime();
+        try {
+            BigDecimal ret = compile(fromId, toId).applyExact(val, mc);
+            l.called(Operation.CONVERT, SYMBOLS.sourceOf(fromId), SYMBOLS.sourceOf(toId), System.nanoTime() - start, null);
+            return ret;
+        } catch (Exception ex) {
+            l.called(Operation.CONVERT, SYMBOLS.sourceOf(fromId), SYMBOLS.sourceOf(toId), System.nanoTime() - start, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Convert a value between two unit IDs without rounding, see
+     * {@link ConversionPlan#applyAsDouble(double)}.
+     */
+    public static double convert(int fromId, int toId, double val) throws UnitParseException, SpecificationException, NoSuchUnitException, UnitDBException, PrefixDBException, UnitSystemException, ConversionException {
+        return compile(fromId, toId).applyAsDouble(val);
+    }
+
+    public static String getDescp(int unitId) {
+        return SYMBOLS.resolve(unitId).descp;
+    }
+
+    public static String getCategory(int unitId) {
+        return SYMBOLS.resolve(unitId).category;
+    }
+
+    /**
+     * Get the parsed unit for the given unit string, served from the unit
+     * cache when it has been parsed before. A unit string known to be invalid
+     * fails with a new exception like the one of its first parse.
+     *
+     * @param unitStr The unit expression, ICASA comments allowed
+     * @return The parsed unit
+     */
+    static Unit parseUnit(String unitStr) throws SpecificationException, UnitDBException, PrefixDBException, UnitSystemException {
+        UnitLookup ret = lookup(unitStr);
+        Exception ex = ret.newCause();
+        if (ex instanceof SpecificationException) {
+            throw (SpecificationException) ex;
+        } else if (ex instanceof UnitDBException) {
+            throw (UnitDBException) ex;
+        } else if (ex instanceof PrefixDBException) {
+            throw (PrefixDBException) ex;
+        } else if (ex instanceof UnitSystemException) {
+            throw (UnitSystemException) ex;
+        } else if (ex instanceof RuntimeException) {
+            throw (RuntimeException) ex;
+        } else if (ex != null) {
+            throw new IllegalStateException(ex);
+        }
+        return ret.getUnit();
+    }
+
+    /**
+     * Resolve the unit expression without throwing exceptions. Unit strings
+     * of the ICASA unit dictionary are answered directly, see
+     * {@link #addDictionaryEntry(String, String)}. Expressions which fail to
+     * parse are remembered in a bounded cache keyed by the normalized
+     * expression, so repeated invalid units are not parsed again.
+     *
+     * @param unitStr The unit expression, ICASA comments allowed
+     * @return The status of the expression with the parsed unit or the reason
+     * of the failure
+     */
+    public static UnitLookup lookup(String unitStr) {
+        if (unitStr == null) {
+            return UnitLookup.failed("unit expression is null", null);
+        }
+        UnitDictionary.Entry entry = UnitDictionary.get(unitStr);
+        if (entry != null) {
+            return entry.getLookup();
+        }
+        Unit unit = UNIT_CACHE.get(unitStr);
+        if (unit != null) {
+            return UnitLookup.found(unit);
+        }
+        String unitStrNoComment = preParsing(unitStr);
+        UnitLookup ret = INVALID_CACHE.get(unitStrNoComment);
+        if (ret != null) {
+            return ret;
+        }
+        ConversionListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        ret = parse(unitStr, unitStrNoComment);
+        if (l != null) {
+            l.parsed(unitStr, ret, System.nanoTime() - start);
+        }
+        return ret;
+    }
+
+    /**
+     * Parse a unit expression and cache the result. The result is cached
+     * while the unit database is still locked, so a result from before
+     * {@link #addAlias(String, String)} never enters the caches after they
+     * were cleared.
+     */
+    private static UnitLookup parse(String unitStr, String unitStrNoComment) {
+        synchronized (DB_LOCK) {
+            Unit unit;
+            UnitLookup ret;
+            try {
+                unit = ParserHolder.PARSER.parse(unitStrNoComment);
+            } catch (Exception ex) {
+                unit = CatalogSnapshot.parseStandard(unitStrNoComment);
+                if (unit == null) {
+                    ret = UnitLookup.failed(ex);
+                    INVALID_CACHE.put(unitStrNoComment, ret);
+                    return ret;
+                }
+            }
+            if (unit == null) {
+                ret = UnitLookup.failed("empty unit expression", null);
+                INVALID_CACHE.put(unitStrNoComment, ret);
+                return ret;
+            }
+            UNIT_CACHE.put(unitStr, unit);
+            return UnitLookup.found(unit);
+        }
+    }
+
+    /**
+     * Add a unit string to the ICASA unit dictionary, which resolves the
+     * exact string without normalizing and parsing it. The dictionary is
+     * loaded from the library resource icasa-units.properties and the
+     * resource or file named by the system property unithelper.dictionary.
+     *
+     * @param unitStr The unit string as it appears in the data
+     * @param expression The unit expression it stands for
+     * @return the result of resolving the expression; the entry is only added
+     * if the expression is a valid unit
+     */
+    public static UnitLookup addDictionaryEntry(String unitStr, String expression) {
+        UnitLookup ret = UnitDictionary.put(unitStr, expression);
+        UnitClassifier.clear();
+        return ret;
+    }
+
+    public static UnitLookup addDictionaryEntry(String unitStr) {
+        return addDictionaryEntry(unitStr, unitStr);
+    }
+
+    /**
+     * Add the entries of a properties stream, in the format of the built-in
+     * dictionary, to the ICASA unit dictionary. Entries which can not be
+     * resolved are reported like initialization errors and skipped.
+     *
+     * @param in The dictionary entries, UTF-8 encoded; the stream is closed
+     * @return The number of entries added
+     */
+    public static int loadDictionary(InputStream in) {
+        int ret = UnitDictionary.putAll(in, "stream");
+        UnitClassifier.clear();
+        return ret;
+    }
+
+    public static CacheStats getUnitCacheStats() {
+        return UNIT_CACHE.stats();
+    }
+
+    public static CacheStats getPlanCacheStats() {
+        return PLAN_CACHE.stats();
+    }
+
+    public static CacheStats getInvalidUnitCacheStats() {
+        return INVALID_CACHE.stats();
+    }
+
+    /**
+     * Change the maximum number of entries kept by the unit cache, the
+     * conversion plan cache and the invalid unit cache. A size of 0 disables
+     * caching.
+     *
+     * @param size The maximum number of entries per cache
+     */
+    public static void setCacheSize(int size) {
+        UNIT_CACHE.setCapacity(size);
+        PLAN_CACHE.setCapacity(size);
+        INVALID_CACHE.setCapacity(size);
+    }
+
+    public static void clearCache() {
+        UNIT_CACHE.clear();
+        PLAN_CACHE.clear();
+        INVALID_CACHE.clear();
+        SYMBOLS.reset();
+        UnitClassifier.clear();
+    }
+
+    /**
+     * Collect the parsed units and the linear conversion plans in the caches
+     * for a {@link WarmupSnapshot}.
+     */
+    static WarmupSnapshot captureWarmup() {
+        WarmupSnapshot ret;
+        synchronized (DB_LOCK) {
+            ret = new WarmupSnapshot(WarmupSnapshot.fingerprint(DbHolder.DB, AGMIP_UNIT));
+        }
+        for (Map.Entry<String, Unit> unit : UNIT_CACHE.entries().entrySet()) {
+            addWarmupUnit(ret, unit.getKey(), unit.getValue());
+        }
+        for (ConversionPlan plan : PLAN_CACHE.entries().values()) {
+            if (plan.isLinear()) {
+                String from = plan.getFromUnit();
+                String to = plan.getToUnit();
+                ret.addPair(addWarmupUnit(ret, from, lookup(from).getUnit()),
+                        addWarmupUnit(ret, to, lookup(to).getUnit()),
+                        plan.getScale(), plan.getOffset());
+            }
+        }
+        return ret;
+    }
+
+    private static int addWarmupUnit(WarmupSnapshot snapshot, String unitStr, Unit unit) {
+        String dimension = unit == null ? "" : unit.getDerivedUnit().getCanonicalString();
+        return snapshot.addUnit(unitStr, preParsing(unitStr), descp(unitStr), category(unitStr), dimension);
+    }
+
+    /**
+     * Intern the units of a {@link WarmupSnapshot} with their description and
+     * category, and cache its conversions as plans. Units whose normalized
+     * string has changed since the snapshot was taken are skipped with their
+     * conversions, and so are conversions between units of different
+     * dimensions.
+     *
+     * <p>The current database is restored under the database lock, so an
+     * alias added meanwhile either changes the fingerprint or clears what was
+     * restored. While the database is being initialized no other thread can
+     * use it, and the lock is not taken, since a thread holding it may be
+     * waiting for the initialization.</p>
+     *
+     * @param snapshot The snapshot to restore
+     * @param db The unit database while it is being initialized, or null for
+     * the current one
+     * @return false if the fingerprint of the snapshot does not match the unit
+     * database and nothing was restored
+     */
+    static boolean restoreWarmup(WarmupSnapshot snapshot, UnitDB db) {
+        if (db != null) {
+            return restore(snapshot, db);
+        }
+        synchronized (DB_LOCK) {
+            return restore(snapshot, DbHolder.DB);
+        }
+    }
+
+    private static boolean restore(WarmupSnapshot snapshot, UnitDB db) {
+        if (WarmupSnapshot.fingerprint(db, AGMIP_UNIT) != snapshot.fingerprint) {
+            return false;
+        }
+        int gen = SYMBOLS.generation();
+        int[] ids = new int[snapshot.units.size()];
+        for (int i = 0; i < ids.length; i++) {
+            WarmupSnapshot.UnitEntry unit = snapshot.units.get(i);
+            if (preParsing(unit.source).equals(unit.name)) {
+                ids[i] = SYMBOLS.idOf(unit.source);
+                SYMBOLS.preload(ids[i], unit.descp, unit.category, gen);
+            } else {
+                ids[i] = -1;
+            }
+        }
+        for (WarmupSnapshot.PairEntry pair : snapshot.pairs) {
+            if (ids[pair.from] < 0 || ids[pair.to] < 0
+                    || !snapshot.units.get(pair.from).dimension.equals(snapshot.units.get(pair.to).dimension)) {
+                continue;
+            }
+            String from = snapshot.units.get(pair.from).source;
+            String to = snapshot.units.get(pair.to).source;
+            ConversionPlan plan = new ConversionPlan(from, to, pair.scale, pair.offset);
+            PLAN_CACHE.put(new UnitPair(from, to), plan);
+            SYMBOLS.putPair(ids[pair.from], ids[pair.to], plan, gen);
+        }
+        return true;
     }
 
     public static JSONObject convertToJsonObj(String fromUnit, String toUnit, String val) {
@@ -165,67 +761,36 @@ public class UnitConverter {
     }
 
     public static JSONObject convertToJsonObj(String fromUnit, String toUnit, BigDecimal val) {
-//        return convertToJsonObj(fromUnit, toUnit, val, val.scale());
-        JSONObject ret = new JSONObject();
-        ret.put("unit_from", fromUnit);
-        ret.put("unit_to", toUnit);
-        ret.put("value_from", val.toPlainString());
-        try {
-            ret.put("value_to", convert(fromUnit, toUnit, val).toPlainString());
-            ret.put("status", "0");
-            ret.put("message", "successful");
-        } catch (SpecificationException | UnitDBException | PrefixDBException | UnitSystemException | ConversionException ex) {
-            ret.put("status", "1");
-            ret.put("message", ex.getMessage());
-        } catch (Exception ex) {
-//            Logger.getLogger(UnitConverter.class.getName()).log(Level.SEVERE, null, ex);
-            ret.put("status", "1");
-            ret.put("message", "undefined unit");
-        }
-//        catch (SpecificationException ex) {
-//            Logger.getLogger(UnitConverter.class.getName()).log(Level.SEVERE, null, ex);
-//        } catch (UnitDBException ex) {
-//            Logger.getLogger(UnitConverter.class.getName()).log(Level.SEVERE, null, ex);
-//        } catch (PrefixDBException ex) {
-//            Logger.getLogger(UnitConverter.class.getName()).log(Level.SEVERE, null, ex);
-//        } catch (UnitSystemException ex) {
-//            Logger.getLogger(UnitConverter.class.getName()).log(Level.SEVERE, null, ex);
-//        } catch (ConversionException ex) {
-//            Logger.getLogger(UnitConverter.class.getName()).log(Level.SEVERE, null, ex);
-//        }
-
-        return ret;
+        return convertResult(new ConversionRequest(fromUnit, toUnit, val)).toJsonObj();
     }
 
     public static JSONObject convertToJsonObj(String fromUnit, String toUnit, BigDecimal val, int scale) {
-        JSONObject ret = new JSONObject();
-        ret.put("unit_from", fromUnit);
-        ret.put("unit_to", toUnit);
-        ret.put("value_from", val.toPlainString());
+        return convertResult(new ConversionRequest(fromUnit, toUnit, val, scale)).toJsonObj();
+    }
+
+    /**
+     * Convert the request, reporting a failure in the result the way
+     * convertToJsonObj does.
+     */
+    static ConversionResult convertResult(ConversionRequest request) {
+        ConversionListener l = listener;
+        long start = l == null ? 0 : System.nanoTime();
+        Exception failure = null;
+        ConversionResult ret;
         try {
-            ret.put("value_to", convert(fromUnit, toUnit, val, scale).toPlainString());
-            ret.put("status", "0");
-            ret.put("message", "successful");
+            ConversionPlan plan = compile(request.getFromUnit(), request.getToUnit());
+            BigDecimal val = request.hasScale() ? plan.apply(request.getValue(), request.getScale()) : plan.apply(request.getValue());
+            ret = ConversionResult.success(request, val);
         } catch (SpecificationException | UnitDBException | PrefixDBException | UnitSystemException | ConversionException ex) {
-            ret.put("status", "1");
-            ret.put("message", ex.getMessage());
+            failure = ex;
+            ret = ConversionResult.failure(request, ex.getMessage());
         } catch (Exception ex) {
-//            Logger.getLogger(UnitConverter.class.getName()).log(Level.SEVERE, null, ex);
-            ret.put("status", "1");
-            ret.put("message", "undefined unit");
-        }
-//        catch (SpecificationException ex) {
-//            Logger.getLogger(UnitConverter.class.getName()).log(Level.SEVERE, null, ex);
-//        } catch (UnitDBException ex) {
-//            Logger.getLogger(UnitConverter.class.getName()).log(Level.SEVERE, null, ex);
-//        } catch (PrefixDBException ex) {
-//            Logger.getLogger(UnitConverter.class.getName()).log(Level.SEVERE, null, ex);
-//        } catch (UnitSystemException ex) {
-//            Logger.getLogger(UnitConverter.class.getName()).log(Level.SEVERE, null, ex);
-//        } catch (ConversionException ex) {
-//            Logger.getLogger(UnitConverter.class.getName()).log(Level.SEVERE, null, ex);
-//        }
-
+            failure = ex;
+            ret = ConversionResult.failure(request, "undefined unit");
+        }
+        if (l != null) {
+            l.called(Operation.CONVERT_JSON, request.getFromUnit(), request.getToUnit(), System.nanoTime() - start, failure);
+        }
         return ret;
     }
 
@@ -238,33 +803,62 @@ public class UnitConverter {
     }
 
     public static String convertToJsonStr(String fromUnit, String toUnit, BigDecimal val) {
-        return convertToJsonObj(fromUnit, toUnit, val).toJSONString();
+        return convertResult(new ConversionRequest(fromUnit, toUnit, val)).toJsonStr();
     }
 
     public static String convertToJsonStr(String fromUnit, String toUnit, BigDecimal val, int scale) {
-        return convertToJsonObj(fromUnit, toUnit, val, scale).toJSONString();
+        return convertResult(new ConversionRequest(fromUnit, toUnit, val, scale)).toJsonStr();
     }
 
-    protected static String preParsing(String unit) {
-        String ret = unit.replaceAll("\\[[^\\]]*\\]", "").replaceAll("\\s", "");
-        // Remove extra splitter used by comment expression
-        for (String s1 : SPLITTER) {
-            for (String s2 : SPLITTER) {
-                ret = ret.replaceAll(s1 + "\\^?-?\\d*" + s2, s2);
-            }
-        }
-        // Add ( ) for ICASA special unit expression
-        for (String s : ICASA_SPECIAL) {
-            ret = ret.replaceAll(s, "(" + s  + ")");
-        }
-        //Remove splitter in the end of expression
-        for (String s : SPLITTER) {
-            if (ret.endsWith(s)) {
-                ret = ret.substring(0, ret.length() - 1);
-            }
+    /**
+     * Write the conversion result to the output with the same text as
+     * {@link #convertToJsonStr(String, String, BigDecimal)}, without building
+     * the JSON object.
+     *
+     * @param fromUnit The unit expression of the original value
+     * @param toUnit The unit expression of the target value
+     * @param val The original value
+     * @param out The destination, for example a Writer or StringBuilder
+     */
+    public static void convertToJson(String fromUnit, String toUnit, BigDecimal val, Appendable out) throws IOException {
+        JsonWriter.writeResult(convertResult(new ConversionRequest(fromUnit, toUnit, val)), out);
+    }
+
+    public static void convertToJson(String fromUnit, String toUnit, BigDecimal val, int scale, Appendable out) throws IOException {
+        JsonWriter.writeResult(convertResult(new ConversionRequest(fromUnit, toUnit, val, scale)), out);
+    }
+
+    /**
+     * Write the conversion result UTF-8 encoded into the buffer, with the same
+     * text as {@link #convertToJsonStr(String, String, BigDecimal)}.
+     *
+     * @throws BufferOverflowException if the result does not fit; the buffer
+     * position is left unchanged
+     */
+    public static void convertToJson(String fromUnit, String toUnit, BigDecimal val, ByteBuffer out) {
+        writeUtf8(convertResult(new ConversionRequest(fromUnit, toUnit, val)), out);
+    }
+
+    public static void convertToJson(String fromUnit, String toUnit, BigDecimal val, int scale, ByteBuffer out) {
+        writeUtf8(convertResult(new ConversionRequest(fromUnit, toUnit, val, scale)), out);
+    }
+
+    private static void writeUtf8(ConversionResult result, ByteBuffer out) {
+        int pos = out.position();
+        try {
+            JsonWriter.Utf8Buffer buf = JsonWriter.utf8(out);
+            JsonWriter.writeResult(result, buf);
+            buf.finish();
+        } catch (BufferOverflowException ex) {
+            out.position(pos);
+            throw ex;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
         }
-        
-        return ret;
+    }
+
+    protected static String preParsing(String unit) {
+        return UnitStringNormalizer.normalize(unit);
     }
 
 //    protected static String removeComment(String unit) {
@@ -272,14 +866,40 @@ public class UnitConverter {
 //    }
 
     public static boolean isValid(String unitStr) {
-        try {
-            return PARSER.parse(preParsing(unitStr)) != null;
-        } catch (Exception ex) {
-            return false;
+        ConversionListener l = listener;
+        if (l == null) {
+            return lookup(unitStr).isParsed();
         }
+        long start = System.nanoTime();
+        boolean ret = lookup(unitStr).isParsed();
+        l.called(Operation.IS_VALID, unitStr, null, System.nanoTime() - start, null);
+        return ret;
     }
 
     public static String getDescp(String unitStr) {
+        ConversionListener l = listener;
+        if (l == null) {
+            return descp(unitStr);
+        }
+        long start = System.nanoTime();
+        String ret = descp(unitStr);
+        l.called(Operation.GET_DESCP, unitStr, null, System.nanoTime() - start, null);
+        return ret;
+    }
+
+    static String descp(String unitStr) {
+        return UnitClassifier.classify(unitStr).getDescp();
+    }
+
+    static String computeDescp(String unitStr) {
+        UnitDictionary.Entry entry = UnitDictionary.get(unitStr);
+        if (entry != null) {
+            return entry.getDescp();
+        }
+        UnitSymbolTable.Resolved resolved = SYMBOLS.peek(unitStr);
+        if (resolved != null) {
+            return resolved.descp;
+        }
         String unitStrNoComment = preParsing(unitStr);
         if (AGMIP_UNIT.containsKey(unitStrNoComment)) {
             String agmipRet = AGMIP_UNIT.get(unitStrNoComment);
@@ -287,8 +907,11 @@ public class UnitConverter {
                 return unitStrNoComment;
             }
         }
+        Unit unit = lookup(unitStr).getUnit();
+        if (unit == null) {
+            return "";
+        }
         try {
-            Unit unit = PARSER.parse(unitStrNoComment);
             String ret = unit.toString();
             if (unit instanceof UnknownUnit) {
                 ret = "";
@@ -306,6 +929,29 @@ public class UnitConverter {
     }
 
     public static String getCategory(String unitStr) {
+        ConversionListener l = listener;
+        if (l == null) {
+            return category(unitStr);
+        }
+        long start = System.nanoTime();
+        String ret = category(unitStr);
+        l.called(Operation.GET_CATEGORY, unitStr, null, System.nanoTime() - start, null);
+        return ret;
+    }
+
+    static String category(String unitStr) {
+        return UnitClassifier.classify(unitStr).getDimension();
+    }
+
+    static String computeCategory(String unitStr) {
+        UnitDictionary.Entry entry = UnitDictionary.get(unitStr);
+        if (entry != null) {
+            return entry.getCategory();
+        }
+        UnitSymbolTable.Resolved resolved = SYMBOLS.peek(unitStr);
+        if (resolved != null) {
+            return resolved.category;
+        }
         String unitStrNoComment = preParsing(unitStr);
         if (AGMIP_UNIT.containsKey(unitStrNoComment)) {
             String agmipRet = AGMIP_UNIT.get(unitStrNoComment);
@@ -313,8 +959,11 @@ public class UnitConverter {
                 return "unitless";
             }
         }
+        Unit unit = lookup(unitStr).getUnit();
+        if (unit == null) {
+            return "";
+        }
         try {
-            Unit unit = PARSER.parse(unitStrNoComment);
             String ret = unit.getDerivedUnit().getQuantityDimension().toString();
             if ((ret == null || ret.isEmpty()) && unit.isDimensionless()) {
                 return "unitless";
@@ -330,38 +979,21 @@ public class UnitConverter {
     }
     
     public static ArrayList<Unit> listUnit(UNIT_TYPE type) {
-        
-        Iterator it = DB.getIterator();
-        ArrayList<Unit> ret = new ArrayList();
-        while(it.hasNext()) {
-            Unit unit = (Unit) it.next();
-            if (unit.getDerivedUnit().getQuantityDimension().toString().equals(type.getCode())) {
-                ret.add(unit);
-            }
-        }
-        return ret;
+        return new ArrayList(getCatalog().getUnits(type));
     }
     
     public static JSONArray listUnitJsonArray(String unitTypeCode) {
         return listUnitJsonArray(UNIT_TYPE.codeOf(unitTypeCode));
     }
     
+    /**
+     * @return a copy of the unit listing, which the caller may change
+     */
     public static JSONArray listUnitJsonArray(UNIT_TYPE type) {
         JSONArray ret = new JSONArray();
-        for (Unit unit : listUnit(type)) {
-            JSONObject data = new JSONObject();
-            data.put("name", unit.getName());
-            data.put("type", type.toString());
-            data.put("type_code", type.getCode());
-            data.put("expression", unit.getCanonicalString());
-            if (unit.getSymbol() == null) {
-                data.put("symbol", unit.getName().replaceAll("\\s", "_"));
-            } else {
-                data.put("symbol", unit.getSymbol());
-            }
-            ret.add(data);
+        for (Object data : getCatalog().getJsonArray(type)) {
+            ret.add(new JSONObject((Map) data));
         }
-        
         return ret;
     }
     
@@ -370,30 +1002,88 @@ public class UnitConverter {
     }
     
     public static String listUnitJsonStr(UNIT_TYPE type) {
-        return listUnitJsonArray(type).toJSONString();
+        return getCatalog().getJsonString(type);
+    }
+
+    /**
+     * Write the unit listing of {@link #listUnitJsonStr(UNIT_TYPE)} to the
+     * output.
+     */
+    public static void listUnitJson(UNIT_TYPE type, Appendable out) throws IOException {
+        out.append(getCatalog().getJsonString(type));
+    }
+
+    /**
+     * Write the unit listing of {@link #listUnitJsonStr(UNIT_TYPE)} UTF-8
+     * encoded into the buffer.
+     *
+     * @throws BufferOverflowException if the listing does not fit; nothing is
+     * written then
+     */
+    public static void listUnitJson(UNIT_TYPE type, ByteBuffer out) {
+        out.put(getCatalog().getJsonBytes(type));
+    }
+
+    private static UnitCatalog getCatalog() {
+        UnitCatalog ret = catalog;
+        if (ret == null) {
+            synchronized (DB_LOCK) {
+                ret = catalog;
+                if (ret == null) {
+                    ret = UnitCatalog.build(DbHolder.DB);
+                    catalog = ret;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Add an alias for an existing unit to the unit database, the same way as
+     * the built-in AgMIP aliases such as "dap" for "day". The unit listing is
+     * rebuilt on next use.
+     *
+     * @param alias The new unit name
+     * @param unitName The name of the existing unit, or "1" for a unitless
+     * alias
+     */
+    public static void addAlias(String alias, String unitName) throws UnitDBException, NoSuchUnitException, NameException {
+        synchronized (DB_LOCK) {
+            DbHolder.DB.addAlias(alias, unitName);
+            AGMIP_UNIT.put(alias, unitName);
+            catalog = null;
+            INVALID_CACHE.clear();
+            UNIT_CACHE.clear();
+            PLAN_CACHE.clear();
+            SYMBOLS.reset();
+            UnitClassifier.clear();
+        }
     }
     
     private static PrefixDB initPrefixDB() {
         try {
             return PrefixDBManager.instance();
         } catch (PrefixDBException ex) {
-            System.err.println(ex.getMessage());
+            reportInitError("prefix database", ex);
             return null;
         }
     }
     
-    private static JSONArray initPrefixInfo() {
+    private static JSONArray initPrefixInfo(PrefixDB prefixDB) {
         JSONArray ret = new JSONArray();
-        Iterator it = PREFIX_DB.iterator();
+        if (prefixDB == null) {
+            return ret;
+        }
+        Iterator it = prefixDB.iterator();
         while (it.hasNext()) {
             JSONObject prefixInfo = new JSONObject();
             PrefixName name = (PrefixName) it.next();
             prefixInfo.put("name", name.getID());
             prefixInfo.put("value", Double.toString(name.getValue()));
             try {
-                prefixInfo.put("symbol", PREFIX_DB.getPrefixByValue(name.getValue()).toString());
+                prefixInfo.put("symbol", prefixDB.getPrefixByValue(name.getValue()).toString());
             } catch (PrefixDBAccessException ex) {
-                System.err.println(ex.getMessage());
+                reportInitError("prefix listing", ex);
             }
             ret.add(prefixInfo);
         }
@@ -401,10 +1091,18 @@ public class UnitConverter {
     }
     
     public static JSONArray listPrefix() {
-        return PREFIX_LIST;
+        return PrefixHolder.PREFIX_LIST;
     }
     
     public static String listPrefixJsonStr() {
-        return PREFIX_LIST_JSON;
+        return PrefixHolder.PREFIX_LIST_JSON;
+    }
+
+    public static void listPrefixJson(Appendable out) throws IOException {
+        out.append(PrefixHolder.PREFIX_LIST_JSON);
+    }
+
+    public static void listPrefixJson(ByteBuffer out) {
+        out.put(PrefixHolder.PREFIX_LIST_BYTES);
     }
 }
@@ -0,0 +1,179 @@
+package org.agmip.tools.unithelper;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Dictionary of exact unit strings with their pre-resolved unit, description
+ * and category. A hit answers {@link UnitConverter#lookup(String)},
+ * {@link UnitConverter#getDescp(String)} and
+ * {@link UnitConverter#getCategory(String)} with one hash lookup, without
+ * normalizing the string or taking the parser lock.
+ *
+ * <p>The entries are read from {@value #RESOURCE} on first use, plus the
+ * classpath resource or file named by the system property
+ * {@value #PROPERTY}. Every entry is resolved through the regular parsing
+ * path, so a hit gives exactly what the regular path would. The map is
+ * replaced as a whole when entries are added, readers never lock.</p>
+ */
+final class UnitDictionary {
+
+    static final String RESOURCE = "/org/agmip/tools/unithelper/icasa-units.properties";
+    static final String PROPERTY = "unithelper.dictionary";
+
+    private static volatile Map<String, Entry> entries;
+    private static boolean loading;
+
+    private UnitDictionary() {
+    }
+
+    static Entry get(String unitStr) {
+        Map<String, Entry> map = entries;
+        if (map == null) {
+            map = load();
+            if (map == null) {
+                return null;
+            }
+        }
+        return map.get(unitStr);
+    }
+
+    static int size() {
+        Map<String, Entry> map = entries;
+        return map == null ? 0 : map.size();
+    }
+
+    private static synchronized Map<String, Entry> load() {
+        if (entries != null || loading) {
+            // Resolving the entries goes through lookup again
+            return entries;
+        }
+        loading = true;
+        try {
+            Map<String, Entry> map = new HashMap();
+            read(UnitDictionary.class.getResourceAsStream(RESOURCE), RESOURCE, map);
+            String extra = System.getProperty(PROPERTY);
+            if (extra != null && !extra.isEmpty()) {
+                InputStream in = UnitDictionary.class.getResourceAsStream(extra);
+                if (in == null) {
+                    try {
+                        in = new FileInputStream(extra);
+                    } catch (IOException ex) {
+                        UnitConverter.reportInitError("dictionary", ex);
+                    }
+                }
+                read(in, extra, map);
+            }
+            entries = map;
+            return map;
+        } finally {
+            loading = false;
+        }
+    }
+
+    private static void read(InputStream in, String source, Map<String, Entry> map) {
+        if (in == null) {
+            return;
+        }
+        try {
+            Properties props = new Properties();
+            try (InputStream stream = in) {
+                props.load(new InputStreamReader(stream, StandardCharsets.UTF_8));
+            }
+            for (String key : props.stringPropertyNames()) {
+                String expression = props.getProperty(key).trim();
+                Entry entry = resolve(expression.isEmpty() ? key : expression);
+                if (entry == null) {
+                    UnitConverter.reportInitError("dictionary", new IllegalArgumentException(
+                            "Unit dictionary " + source + ": can not resolve " + key));
+                } else {
+                    map.put(key, entry);
+                }
+            }
+        } catch (IOException ex) {
+            UnitConverter.reportInitError("dictionary", ex);
+        }
+    }
+
+    private static Entry resolve(String expression) {
+        UnitLookup ret = UnitConverter.lookup(expression);
+        if (ret.getStatus() != UnitLookup.Status.VALID) {
+            return null;
+        }
+        return new Entry(ret, UnitConverter.descp(expression), UnitConverter.category(expression));
+    }
+
+    /**
+     * Add or replace an entry, resolving the expression through the regular
+     * parsing path.
+     *
+     * @return the lookup result of the expression
+     */
+    static UnitLookup put(String unitStr, String expression) {
+        if (entries == null) {
+            load();
+        }
+        UnitLookup ret = UnitConverter.lookup(expression);
+        if (ret.getStatus() != UnitLookup.Status.VALID) {
+            return ret;
+        }
+        Entry entry = new Entry(ret, UnitConverter.descp(expression), UnitConverter.category(expression));
+        synchronized (UnitDictionary.class) {
+            Map<String, Entry> map = entries == null ? new HashMap() : new HashMap(entries);
+            map.put(unitStr, entry);
+            entries = map;
+        }
+        return ret;
+    }
+
+    /**
+     * Add the entries of a properties stream in the format of the built-in
+     * dictionary.
+     *
+     * @return the number of entries added
+     */
+    static int putAll(InputStream in, String source) {
+        if (entries == null) {
+            load();
+        }
+        Map<String, Entry> added = new HashMap();
+        read(in, source, added);
+        synchronized (UnitDictionary.class) {
+            Map<String, Entry> map = entries == null ? new HashMap() : new HashMap(entries);
+            map.putAll(added);
+            entries = map;
+        }
+        return added.size();
+    }
+
+    static final class Entry {
+
+        private final UnitLookup lookup;
+        private final String descp;
+        private final String category;
+
+        Entry(UnitLookup lookup, String descp, String category) {
+            this.lookup = lookup;
+            this.descp = descp;
+            this.category = category;
+        }
+
+        UnitLookup getLookup() {
+            return lookup;
+        }
+
+        String getDescp() {
+            return descp;
+        }
+
+        String getCategory() {
+            return category;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.agmip.tools.unithelper;
+
+import ucar.units.Unit;
+import ucar.units.UnknownUnit;
+
+/**
+ * Result of resolving a unit expression, returned instead of throwing the
+ * UDUnits parser exceptions.
+ */
+public final class UnitLookup {
+
+    public static enum Status {
+        /** The expression is a known unit */
+        VALID,
+        /** The expression is parsed, but refers to names which are not in the unit database */
+        UNKNOWN_UNIT,
+        /** The expression can not be parsed */
+        INVALID
+    }
+
+    private final Status status;
+    private final String reason;
+    private final Unit unit;
+    private final CachedFailure cause;
+
+    private UnitLookup(Status status, String reason, Unit unit, Exception cause) {
+        this.status = status;
+        this.reason = reason;
+        this.unit = unit;
+        this.cause = cause == null ? null : new CachedFailure(cause);
+    }
+
+    static UnitLookup found(Unit unit) {
+        if (unit instanceof UnknownUnit || unit.getDerivedUnit() instanceof UnknownUnit) {
+            return new UnitLookup(Status.UNKNOWN_UNIT, "unknown unit " + unit, unit, null);
+        }
+        return new UnitLookup(Status.VALID, null, unit, null);
+    }
+
+    static UnitLookup failed(String reason, Exception cause) {
+        return new UnitLookup(Status.INVALID, reason, null, cause);
+    }
+
+    static UnitLookup failed(Exception cause) {
+        String reason = cause.getMessage();
+        if (reason == null || reason.isEmpty()) {
+            reason = cause.getClass().getSimpleName();
+        }
+        return new UnitLookup(Status.INVALID, reason, null, cause);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return true if the expression could be parsed, the same condition as
+     * {@link UnitConverter#isValid(String)}
+     */
+    public boolean isParsed() {
+        return unit != null;
+    }
+
+    /**
+     * @return the reason why the expression is not a valid unit, or null for a
+     * valid unit
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @return the parsed unit, or null if the expression can not be parsed
+     */
+    public Unit getUnit() {
+        return unit;
+    }
+
+    /**
+     * @return a new exception like the one of the parser for an invalid
+     * expression, or null
+     */
+    Exception newCause() {
+        return cause == null ? null : cause.newException();
+    }
+
+    @Override
+    public String toString() {
+        return reason == null ? status.toString() : status + ": " + reason;
+    }
+}
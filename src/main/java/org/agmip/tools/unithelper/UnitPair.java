@@ -0,0 +1,47 @@
+package org.agmip.tools.unithelper;
+
+/**
+ * Key object for a (from, to) unit string pair.
+ */
+final class UnitPair {
+
+    private final String fromUnit;
+    private final String toUnit;
+    private final int hash;
+
+    UnitPair(String fromUnit, String toUnit) {
+        this.fromUnit = fromUnit;
+        this.toUnit = toUnit;
+        this.hash = 31 * fromUnit.hashCode() + toUnit.hashCode();
+    }
+
+    String getFromUnit() {
+        return fromUnit;
+    }
+
+    String getToUnit() {
+        return toUnit;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof UnitPair)) {
+            return false;
+        }
+        UnitPair other = (UnitPair) obj;
+        return hash == other.hash && fromUnit.equals(other.fromUnit) && toUnit.equals(other.toUnit);
+    }
+
+    @Override
+    public String toString() {
+        return fromUnit + " -> " + toUnit;
+    }
+}
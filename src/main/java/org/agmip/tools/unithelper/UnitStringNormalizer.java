@@ -0,0 +1,167 @@
+package org.agmip.tools.unithelper;
+
+/**
+ * Hand-written normalizer for unit expressions. It produces the same result
+ * as the original regular expression based pre-parsing: ICASA comments in
+ * brackets and white spaces are removed, the splitter left behind by a removed
+ * comment is dropped, ICASA special units are wrapped in parentheses and a
+ * trailing splitter is removed.
+ */
+final class UnitStringNormalizer {
+
+    private static final char[] SPLITTER = {'/', '.', '*'};
+    private static final String[] ICASA_SPECIAL = {"100g"};
+
+    private UnitStringNormalizer() {
+    }
+
+    static String normalize(String unit) {
+        int len = unit.length();
+        char[] buf = new char[len];
+        int n = stripComments(unit, buf);
+        if (hasExtraSplitter(buf, n)) {
+            for (char s1 : SPLITTER) {
+                for (char s2 : SPLITTER) {
+                    n = removeExtraSplitter(buf, n, s1, s2);
+                }
+            }
+        }
+        boolean wrapped = false;
+        for (String special : ICASA_SPECIAL) {
+            if (indexOf(buf, n, special, 0) >= 0) {
+                buf = wrapSpecial(buf, n, special);
+                n = buf.length;
+                wrapped = true;
+            }
+        }
+        // Only "/" can match here; the dot and star entries of the original
+        // splitter list were regular expressions and never matched literally.
+        if (endsWith(buf, n, "/")) {
+            n--;
+        }
+        if (endsWith(buf, n, "\\.")) {
+            n--;
+        }
+        if (endsWith(buf, n, "\\*")) {
+            n--;
+        }
+        if (n == len && !wrapped) {
+            return unit;
+        }
+        return new String(buf, 0, n);
+    }
+
+    /**
+     * Copy the unit into the buffer, skipping the bracket comments and the
+     * white spaces.
+     */
+    private static int stripComments(String unit, char[] buf) {
+        int len = unit.length();
+        int lastClose = unit.lastIndexOf(']');
+        int n = 0;
+        for (int i = 0; i < len; i++) {
+            char c = unit.charAt(i);
+            if (c == '[' && i < lastClose) {
+                i = unit.indexOf(']', i + 1);
+            } else if (!isWhitespace(c)) {
+                buf[n++] = c;
+            }
+        }
+        return n;
+    }
+
+    private static boolean hasExtraSplitter(char[] buf, int n) {
+        for (int i = 0; i < n; i++) {
+            if (isSplitter(buf[i]) && matchEnd(buf, n, i) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replace each "s1[^][-][digits]s2" with "s2", scanning from left to right
+     * without rescanning the replaced text.
+     */
+    private static int removeExtraSplitter(char[] buf, int n, char s1, char s2) {
+        int w = 0;
+        int r = 0;
+        while (r < n) {
+            if (buf[r] == s1) {
+                int end = matchEnd(buf, n, r);
+                if (end >= 0 && buf[end] == s2) {
+                    buf[w++] = s2;
+                    r = end + 1;
+                    continue;
+                }
+            }
+            buf[w++] = buf[r++];
+        }
+        return w;
+    }
+
+    /**
+     * @return the index of the splitter closing the run started at
+     * {@code start}, or -1 if there is none
+     */
+    private static int matchEnd(char[] buf, int n, int start) {
+        int j = start + 1;
+        if (j < n && buf[j] == '^') {
+            j++;
+        }
+        if (j < n && buf[j] == '-') {
+            j++;
+        }
+        while (j < n && buf[j] >= '0' && buf[j] <= '9') {
+            j++;
+        }
+        return j < n && isSplitter(buf[j]) ? j : -1;
+    }
+
+    private static char[] wrapSpecial(char[] buf, int n, String special) {
+        int count = 0;
+        for (int i = indexOf(buf, n, special, 0); i >= 0; i = indexOf(buf, n, special, i + special.length())) {
+            count++;
+        }
+        char[] ret = new char[n + count * 2];
+        int w = 0;
+        int r = 0;
+        for (int i = indexOf(buf, n, special, 0); i >= 0; i = indexOf(buf, n, special, r)) {
+            System.arraycopy(buf, r, ret, w, i - r);
+            w += i - r;
+            ret[w++] = '(';
+            special.getChars(0, special.length(), ret, w);
+            w += special.length();
+            ret[w++] = ')';
+            r = i + special.length();
+        }
+        System.arraycopy(buf, r, ret, w, n - r);
+        return ret;
+    }
+
+    private static int indexOf(char[] buf, int n, String str, int from) {
+        int last = n - str.length();
+        outer:
+        for (int i = from; i <= last; i++) {
+            for (int k = 0; k < str.length(); k++) {
+                if (buf[i + k] != str.charAt(k)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static boolean endsWith(char[] buf, int n, String str) {
+        return n >= str.length() && indexOf(buf, n, str, n - str.length()) >= 0;
+    }
+
+    private static boolean isSplitter(char c) {
+        return c == '/' || c == '.' || c == '*';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,296 @@
+package org.agmip.tools.unithelper;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import ucar.units.ConversionException;
+import ucar.units.Unit;
+
+/**
+ * Interns unit strings to compact int IDs. Strings which normalize to the
+ * same expression share one ID, so records can keep an int instead of a
+ * string per value, and resolving the unit of an ID is an array access.
+ *
+ * <p>The resolved unit of each ID and the conversion of each (from, to) ID
+ * pair are kept in arrays which are read without locking. Writers hold the
+ * table lock and publish immutable values, so a reader either sees a
+ * complete value or nothing and falls back to the locked path. IDs are
+ * never released; the resolved state is dropped by {@link #reset()} when the
+ * unit database changes.</p>
+ */
+final class UnitSymbolTable {
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap();
+    private volatile String[] sources = new String[64];
+    private volatile String[] names = new String[64];
+    private volatile Resolved[] resolved = new Resolved[64];
+    private volatile PairTable pairs = new PairTable(64);
+    private int count;
+    private volatile int generation;
+
+    /**
+     * @return the ID of the unit string, assigning a new one for an
+     * expression which has not been seen before
+     */
+    int idOf(String unitStr) {
+        Integer ret = ids.get(unitStr);
+        if (ret != null) {
+            return ret;
+        }
+        String name = UnitConverter.preParsing(unitStr);
+        synchronized (this) {
+            ret = ids.get(name);
+            if (ret == null) {
+                ret = count;
+                if (count == names.length) {
+                    int size = count * 2;
+                    sources = Arrays.copyOf(sources, size);
+                    names = Arrays.copyOf(names, size);
+                    resolved = Arrays.copyOf(resolved, size);
+                }
+                sources[count] = unitStr;
+                names[count] = name;
+                count++;
+                ids.put(name, ret);
+            }
+            ids.put(unitStr, ret);
+            return ret;
+        }
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return the normalized unit expression of the ID
+     */
+    String nameOf(int id) {
+        check(id);
+        return names[id];
+    }
+
+    /**
+     * @return the first unit string interned for the ID, which is used to
+     * resolve it
+     */
+    String sourceOf(int id) {
+        check(id);
+        return sources[id];
+    }
+
+    private void check(int id) {
+        if (id < 0 || id >= size()) {
+            throw new IllegalArgumentException("Unknown unit ID: " + id);
+        }
+    }
+
+    /**
+     * @return the lookup result, description and category of the ID
+     */
+    Resolved resolve(int id) {
+        Resolved[] arr = resolved;
+        if (id >= 0 && id < arr.length) {
+            Resolved ret = arr[id];
+            if (ret != null) {
+                return ret;
+            }
+        }
+        String source = sourceOf(id);
+        int gen = generation;
+        Resolved ret = new Resolved(UnitConverter.lookup(source), UnitConverter.descp(source), UnitConverter.category(source));
+        synchronized (this) {
+            if (gen == generation) {
+                resolved[id] = ret;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the resolved state of the unit string if it is interned and
+     * resolved already, otherwise null; nothing is parsed or interned
+     */
+    Resolved peek(String unitStr) {
+        Integer id = ids.get(unitStr);
+        if (id == null) {
+            return null;
+        }
+        Resolved[] arr = resolved;
+        return id < arr.length ? arr[id] : null;
+    }
+
+    /**
+     * Set the description and category of an ID which is not resolved yet,
+     * leaving the lookup to be parsed on first use, unless the table was
+     * reset since the given generation.
+     */
+    synchronized void preload(int id, String descp, String category, int gen) {
+        if (gen == generation && resolved[id] == null) {
+            resolved[id] = new Resolved(null, descp, category);
+        }
+    }
+
+    /**
+     * @return the current generation, which changes with {@link #reset()}
+     */
+    int generation() {
+        return generation;
+    }
+
+    /**
+     * @return the cached ConversionPlan or Failure of the pair, or null
+     */
+    Object getPair(int fromId, int toId) {
+        return pairs.get(key(fromId, toId));
+    }
+
+    /**
+     * Cache the ConversionPlan or Failure of the pair, unless the table was
+     * reset since the given generation.
+     */
+    synchronized void putPair(int fromId, int toId, Object value, int gen) {
+        if (gen != generation) {
+            return;
+        }
+        PairTable table = pairs;
+        if (table.size * 2 >= table.keys.length) {
+            table = table.grow();
+            table.put(key(fromId, toId), value);
+            pairs = table;
+        } else {
+            table.put(key(fromId, toId), value);
+        }
+    }
+
+    /**
+     * Drop the resolved units and conversions, keeping the IDs.
+     */
+    synchronized void reset() {
+        generation++;
+        resolved = new Resolved[names.length];
+        pairs = new PairTable(64);
+    }
+
+    /**
+     * Pack the pair into a key. The key is inverted so that the initial 0 of
+     * an unused slot can not match the pair (0, 0).
+     */
+    private static long key(int fromId, int toId) {
+        return ~(((long) fromId << 32) | (toId & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Resolved state of an ID. The lookup is null for an ID restored from a
+     * warm-up snapshot until the unit string is parsed.
+     */
+    static final class Resolved {
+
+        final UnitLookup lookup;
+        final String descp;
+        final String category;
+
+        Resolved(UnitLookup lookup, String descp, String category) {
+            this.lookup = lookup;
+            this.descp = descp;
+            this.category = category;
+        }
+    }
+
+    /**
+     * Cached failure of a pair. Every conversion of the pair fails with a new
+     * exception: a parse failure like the one of the parser, and
+     * incompatible units with the exception UDUnits gives for them.
+     */
+    static final class Failure {
+
+        private final CachedFailure cause;
+        private final Unit fromUnit;
+        private final Unit toUnit;
+
+        Failure(Exception cause) {
+            this(cause, null, null);
+        }
+
+        Failure(Exception cause, Unit fromUnit, Unit toUnit) {
+            this.cause = new CachedFailure(cause);
+            this.fromUnit = fromUnit;
+            this.toUnit = toUnit;
+        }
+
+        Exception newException() {
+            if (fromUnit != null && toUnit != null) {
+                return new ConversionException(fromUnit, toUnit);
+            }
+            return cause.newException();
+        }
+    }
+
+    /**
+     * Open addressing table from packed (from, to) keys to values with linear
+     * probing. A slot is taken when its value is set. Readers do not lock and
+     * the plain array writes are not ordered for them, so a reader may see a
+     * new value without its key and probe past it. That only makes a spurious
+     * miss, which the caller answers on the locked path: a slot is written
+     * once, no packed key is 0, and the values keep their state in final or
+     * volatile fields, so a key that does match always comes with its
+     * complete value.
+     */
+    private static final class PairTable {
+
+        final long[] keys;
+        final Object[] values;
+        final int mask;
+        int size;
+
+        PairTable(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+            this.mask = capacity - 1;
+        }
+
+        private static int hash(long key) {
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            key ^= key >>> 33;
+            return (int) key;
+        }
+
+        Object get(long key) {
+            long[] k = keys;
+            Object[] v = values;
+            for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+                Object value = v[i];
+                if (value == null) {
+                    return null;
+                }
+                if (k[i] == key) {
+                    return value;
+                }
+            }
+        }
+
+        void put(long key, Object value) {
+            for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+                if (values[i] == null) {
+                    values[i] = value;
+                    keys[i] = key;
+                    size++;
+                    return;
+                }
+                if (keys[i] == key) {
+                    return;
+                }
+            }
+        }
+
+        PairTable grow() {
+            PairTable ret = new PairTable(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] != null) {
+                    ret.put(keys[i], values[i]);
+                }
+            }
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package org.agmip.tools.unithelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import ucar.units.Unit;
+import ucar.units.UnitDB;
+
+/**
+ * Resolved conversion state of a running process saved to disk, so the next
+ * process starts with the units and conversion factors it needs instead of
+ * parsing them again. The snapshot holds the normalized unit strings with
+ * their description, category and dimension, and the factors of the linear
+ * conversions between them. The dimension is the canonical expression of the
+ * unit in base units, such as {@code kg.m-2}; a conversion between units of
+ * different dimensions is not restored. Non-linear conversions are not saved
+ * and are resolved as usual.
+ *
+ * <p>A snapshot records a CRC32 fingerprint of the unit database and the
+ * AgMIP aliases it was taken with, and is rejected as a whole when the
+ * running database differs, for example after an alias has been added. The
+ * double conversions of a restored plan apply the saved factors directly, so
+ * they can differ from the UDUnits converter in the last bit of the double
+ * value; the rounded and decimal results resolve the UDUnits converter on
+ * first use and match a compiled plan.</p>
+ *
+ * <p>A snapshot file named by the system property {@value #PROPERTY} is
+ * loaded when the unit database is initialized.</p>
+ */
+public final class WarmupSnapshot {
+
+    public static final String PROPERTY = "unithelper.warmup.snapshot";
+    static final int MAGIC = 0x55485753;
+    static final int VERSION = 2;
+
+    final long fingerprint;
+    final List<UnitEntry> units = new ArrayList();
+    final List<PairEntry> pairs = new ArrayList();
+    private final Map<String, Integer> index = new HashMap();
+
+    WarmupSnapshot(long fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Add a unit, unless the unit string is in the snapshot already.
+     *
+     * @return the index of the unit in the snapshot
+     */
+    int addUnit(String source, String name, String descp, String category, String dimension) {
+        Integer ret = index.get(source);
+        if (ret == null) {
+            ret = units.size();
+            units.add(new UnitEntry(source, name, descp, category, dimension));
+            index.put(source, ret);
+        }
+        return ret;
+    }
+
+    void addPair(int from, int to, double scale, double offset) {
+        pairs.add(new PairEntry(from, to, scale, offset));
+    }
+
+    /**
+     * Save the units and linear conversions resolved so far by
+     * {@link UnitConverter}. The file is replaced atomically where the file
+     * system allows it.
+     *
+     * @param file The snapshot file
+     * @throws IOException if the file can not be written
+     */
+    public static void save(Path file) throws IOException {
+        WarmupSnapshot snapshot = UnitConverter.captureWarmup();
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                snapshot.write(out);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Restore a snapshot into the caches of {@link UnitConverter}. The file is
+     * read in one go before anything is restored.
+     *
+     * @param file The snapshot file
+     * @return false if the snapshot was taken with a different unit database
+     * or aliases and has been ignored
+     * @throws IOException if the file can not be read or is not a valid
+     * snapshot
+     */
+    public static boolean load(Path file) throws IOException {
+        WarmupSnapshot snapshot = read(new ByteArrayInputStream(Files.readAllBytes(file)));
+        return UnitConverter.restoreWarmup(snapshot, null);
+    }
+
+    /**
+     * Restore the snapshot named by the system property, if any, while the
+     * unit database is being initialized. Failures are reported and leave the
+     * caches empty.
+     */
+    static void loadIfEnabled(UnitDB db) {
+        String file = System.getProperty(PROPERTY);
+        if (file == null || file.isEmpty()) {
+            return;
+        }
+        try {
+            WarmupSnapshot snapshot = read(new ByteArrayInputStream(Files.readAllBytes(Paths.get(file))));
+            if (!UnitConverter.restoreWarmup(snapshot, db)) {
+                System.err.println("Warm-up snapshot " + file + " does not match the unit database, ignored");
+            }
+        } catch (IOException | RuntimeException ex) {
+            UnitConverter.reportInitError("warm-up snapshot", ex);
+        }
+    }
+
+    /**
+     * Compute the fingerprint of a unit database with its AgMIP aliases. The
+     * units are taken in sorted order, so the fingerprint does not depend on
+     * the iteration order of the database.
+     *
+     * @param db The unit database, may be null
+     * @param aliases The AgMIP aliases and the units they stand for
+     * @return The CRC32 value
+     */
+    static long fingerprint(UnitDB db, Map<String, String> aliases) {
+        ArrayList<String> entries = new ArrayList();
+        if (db != null) {
+            Iterator it = db.getIterator();
+            while (it.hasNext()) {
+                Unit unit = (Unit) it.next();
+                entries.add(unit.getName() + "=" + unit.getCanonicalString());
+            }
+        }
+        Collections.sort(entries);
+        CRC32 crc = new CRC32();
+        update(crc, "version=" + VERSION);
+        for (String entry : entries) {
+            update(crc, entry);
+        }
+        update(crc, "aliases");
+        for (Map.Entry<String, String> alias : new TreeMap<String, String>(aliases).entrySet()) {
+            update(crc, alias.getKey() + "=" + alias.getValue());
+        }
+        return crc.getValue();
+    }
+
+    private static void update(CRC32 crc, String str) {
+        crc.update(str.getBytes(StandardCharsets.UTF_8));
+        crc.update(0);
+    }
+
+    void write(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeLong(fingerprint);
+        dos.writeInt(units.size());
+        for (UnitEntry unit : units) {
+            dos.writeUTF(unit.source);
+            dos.writeUTF(unit.name);
+            dos.writeUTF(unit.descp);
+            dos.writeUTF(unit.category);
+            dos.writeUTF(unit.dimension);
+        }
+        dos.writeInt(pairs.size());
+        for (PairEntry pair : pairs) {
+            dos.writeInt(pair.from);
+            dos.writeInt(pair.to);
+            dos.writeDouble(pair.scale);
+            dos.writeDouble(pair.offset);
+        }
+        dos.flush();
+    }
+
+    static WarmupSnapshot read(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+        if (dis.readInt() != MAGIC) {
+            throw new IOException("Not a warm-up snapshot");
+        }
+        int version = dis.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported warm-up snapshot version " + version);
+        }
+        WarmupSnapshot ret = new WarmupSnapshot(dis.readLong());
+        int unitCount = dis.readInt();
+        if (unitCount < 0) {
+            throw new IOException("Invalid unit count " + unitCount);
+        }
+        for (int i = 0; i < unitCount; i++) {
+            if (ret.addUnit(dis.readUTF(), dis.readUTF(), dis.readUTF(), dis.readUTF(), dis.readUTF()) != i) {
+                throw new IOException("Duplicate unit " + ret.units.get(ret.units.size() - 1).source);
+            }
+        }
+        int pairCount = dis.readInt();
+        if (pairCount < 0) {
+            throw new IOException("Invalid pair count " + pairCount);
+        }
+        for (int i = 0; i < pairCount; i++) {
+            int from = dis.readInt();
+            int to = dis.readInt();
+            if (from < 0 || from >= ret.units.size() || to < 0 || to >= ret.units.size()) {
+                throw new IOException("Invalid unit index in pair " + i);
+            }
+            ret.addPair(from, to, dis.readDouble(), dis.readDouble());
+        }
+        return ret;
+    }
+
+    static final class UnitEntry {
+
+        final String source;
+        final String name;
+        final String descp;
+        final String category;
+        final String dimension;
+
+        UnitEntry(String source, String name, String descp, String category, String dimension) {
+            this.source = source;
+            this.name = name;
+            this.descp = descp;
+            this.category = category;
+            this.dimension = dimension;
+        }
+    }
+
+    static final class PairEntry {
+
+        final int from;
+        final int to;
+        final double scale;
+        final double offset;
+
+        PairEntry(int from, int to, double scale, double offset) {
+            this.from = from;
+            this.to = to;
+            this.scale = scale;
+            this.offset = offset;
+        }
+    }
+}
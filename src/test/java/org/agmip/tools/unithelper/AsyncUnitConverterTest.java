@@ -0,0 +1,71 @@
+package org.agmip.tools.unithelper;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class AsyncUnitConverterTest {
+
+    @Test
+    public void testCoalescing() throws Exception {
+        List<Runnable> tasks = new ArrayList();
+        AsyncUnitConverter converter = new AsyncUnitConverter(tasks::add);
+        List<CompletableFuture<ConversionResult>> futures = new ArrayList();
+        for (int i = 1; i <= 5; i++) {
+            futures.add(converter.convert("kg[N]/ha", "g/m2", new BigDecimal(i * 10)));
+        }
+        CompletableFuture<String> json = converter.convertToJsonStr("degC", "degF", "20");
+        CompletableFuture<ConversionResult> invalid = converter.convert("abc", "g/m2", BigDecimal.ONE);
+        Assert.assertEquals(3, tasks.size());
+        Assert.assertEquals(3, converter.getPendingBatches());
+        Assert.assertFalse(futures.get(0).isDone());
+
+        tasks.get(0).run();
+        Assert.assertEquals(2, converter.getPendingBatches());
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(futures.get(i).isDone());
+            Assert.assertEquals(0, new BigDecimal(i + 1).compareTo(futures.get(i).get().getValue()));
+        }
+        CompletableFuture<ConversionResult> next = converter.convert("kg[N]/ha", "g/m2", new BigDecimal("60"));
+        Assert.assertEquals(4, tasks.size());
+
+        tasks.get(1).run();
+        tasks.get(2).run();
+        tasks.get(3).run();
+        Assert.assertEquals(UnitConverter.convertToJsonStr("degC", "degF", "20"), json.get());
+        Assert.assertFalse(invalid.get().isSuccessful());
+        Assert.assertEquals(0, new BigDecimal("6").compareTo(next.get().getValue()));
+        Assert.assertEquals(0, converter.getPendingBatches());
+    }
+
+    @Test
+    public void testMaxBatch() {
+        List<Runnable> tasks = new ArrayList();
+        AsyncUnitConverter converter = new AsyncUnitConverter(tasks::add, 2);
+        for (int i = 0; i < 5; i++) {
+            converter.convert("kg/ha", "g/m2", BigDecimal.ONE);
+        }
+        Assert.assertEquals(3, tasks.size());
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        AsyncUnitConverter converter = new AsyncUnitConverter(task -> {
+            throw new RejectedExecutionException("shut down");
+        });
+        CompletableFuture<ConversionResult> future = converter.convert("kg/ha", "g/m2", BigDecimal.ONE);
+        Assert.assertTrue(future.isCompletedExceptionally());
+        try {
+            future.get();
+            Assert.fail("expected rejection");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        }
+        Assert.assertEquals(0, converter.getPendingBatches());
+    }
+}
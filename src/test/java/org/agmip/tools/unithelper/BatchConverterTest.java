@@ -0,0 +1,70 @@
+package org.agmip.tools.unithelper;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import junit.framework.Assert;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+public class BatchConverterTest {
+
+    @Test
+    public void testLines() throws Exception {
+        String input = "{\"unit_from\":\"cm\",\"unit_to\":\"m\",\"value_from\":\"1\"}\n"
+                + "\n"
+                + "{\"unit_from\":\"g/m2/s\",\"unit_to\":\"g/m2/h\",\"value_from\":\"1\",\"scale\":0}\n"
+                + "not json\n"
+                + "{\"unit_from\":\"cm\",\"unit_to\":\"kg\",\"value_from\":2}\n";
+        StringWriter out = new StringWriter();
+        Assert.assertEquals(4, BatchConverter.convert(new StringReader(input), out));
+        String[] lines = out.toString().split("\n");
+        Assert.assertEquals(4, lines.length);
+        Assert.assertEquals(UnitConverter.convertToJsonStr("cm", "m", "1"), lines[0]);
+        Assert.assertEquals(UnitConverter.convertToJsonStr("g/m2/s", "g/m2/h", "1", 0), lines[1]);
+        Assert.assertEquals("1", ((JSONObject) JSONValue.parse(lines[2])).get("status"));
+        Assert.assertEquals("1", ((JSONObject) JSONValue.parse(lines[3])).get("status"));
+    }
+
+    @Test
+    public void testArray() throws Exception {
+        String input = " [{\"unit_from\":\"cm\",\"unit_to\":\"m\",\"value_from\":\"1\",\"note\":{\"a\":[1,2]}},"
+                + "{\"unit_from\":\"degF\",\"unit_to\":\"degC\",\"value_from\":\"212\"},"
+                + "{\"unit_from\":\"cm\",\"unit_to\":\"m\",\"value_from\":\"abc\"}]";
+        StringWriter out = new StringWriter();
+        Assert.assertEquals(3, BatchConverter.convert(new StringReader(input), out));
+        JSONArray ret = (JSONArray) JSONValue.parse(out.toString());
+        Assert.assertEquals(3, ret.size());
+        Assert.assertEquals("0.01", ((JSONObject) ret.get(0)).get("value_to"));
+        Assert.assertEquals("100", ((JSONObject) ret.get(1)).get("value_to"));
+        Assert.assertEquals("invalid value", ((JSONObject) ret.get(2)).get("message"));
+    }
+
+    @Test
+    public void testEmptyArray() throws Exception {
+        StringWriter out = new StringWriter();
+        Assert.assertEquals(0, BatchConverter.convert(new StringReader("[]"), out));
+        Assert.assertEquals("[]", out.toString());
+    }
+
+    @Test
+    public void testNumberText() throws Exception {
+        BatchConverter.RequestReader reader = new BatchConverter.RequestReader(new StringReader(
+                "{\"unit_from\":\"cm\",\"note\":[1,{\"a\":\"]\"}],\"value_from\":1.50,\"scale\":2} {\"value_from\":1e-7}"));
+        BatchConverter.Request request = reader.readElement();
+        Assert.assertFalse(request.invalid);
+        Assert.assertEquals("cm", request.unitFrom);
+        Assert.assertEquals("1.50", request.valueFrom);
+        Assert.assertEquals(Integer.valueOf(2), request.scale);
+        Assert.assertEquals("1e-7", reader.readElement().valueFrom);
+
+        String input = "{\"unit_from\":\"cm\",\"unit_to\":\"m\",\"value_from\":1.50}\n"
+                + "{\"unit_from\":\"cm\",\"unit_to\":\"m\",\"value_from\":1e-7}\n";
+        StringWriter out = new StringWriter();
+        Assert.assertEquals(2, BatchConverter.convert(new StringReader(input), out));
+        String[] lines = out.toString().split("\n");
+        Assert.assertEquals(UnitConverter.convertToJsonStr("cm", "m", "1.50"), lines[0]);
+        Assert.assertEquals(UnitConverter.convertToJsonStr("cm", "m", "1e-7"), lines[1]);
+    }
+}
@@ -0,0 +1,94 @@
+package org.agmip.tools.unithelper;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class BoundedCacheTest {
+
+    @Test
+    public void testEviction() {
+        BoundedCache<String, String> cache = new BoundedCache(2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        Assert.assertEquals("1", cache.get("a"));
+        cache.put("c", "3");
+        Assert.assertNull("least recently used entry evicted", cache.get("b"));
+        Assert.assertEquals("1", cache.get("a"));
+        Assert.assertEquals("3", cache.get("c"));
+
+        CacheStats stats = cache.stats();
+        Assert.assertEquals(3, stats.getHitCount());
+        Assert.assertEquals(1, stats.getMissCount());
+        Assert.assertEquals(1, stats.getEvictionCount());
+        Assert.assertEquals(2, stats.getSize());
+    }
+
+    @Test
+    public void testCapacity() {
+        BoundedCache<String, String> cache = new BoundedCache(4);
+        for (int i = 0; i < 4; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+        cache.setCapacity(1);
+        Assert.assertEquals(1, cache.stats().getSize());
+        Assert.assertEquals(3, cache.stats().getEvictionCount());
+        Assert.assertEquals("v3", cache.get("k3"));
+        cache.setCapacity(0);
+        cache.put("k4", "v4");
+        Assert.assertNull(cache.get("k4"));
+    }
+
+    @Test
+    public void testSegments() {
+        BoundedCache<Integer, Integer> cache = new BoundedCache(1024);
+        for (int i = 0; i < 4096; i++) {
+            cache.put(i, i);
+        }
+        CacheStats stats = cache.stats();
+        Assert.assertEquals(1024, stats.getCapacity());
+        Assert.assertTrue(stats.getSize() <= 1024);
+        Assert.assertEquals(4096 - stats.getSize(), stats.getEvictionCount());
+        Assert.assertEquals(Integer.valueOf(4095), cache.get(4095));
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final BoundedCache<Integer, Integer> cache = new BoundedCache(64);
+        final AtomicInteger wrong = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    // A few hot keys shared by all threads, and a stream of cold ones
+                    int key = i % 4 == 0 ? 1000 + offset * 20000 + i : i % 8;
+                    Integer value = cache.get(key);
+                    if (value == null) {
+                        cache.put(key, key * 2);
+                    } else if (value != key * 2) {
+                        wrong.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(0, wrong.get());
+        Assert.assertTrue(cache.stats().getSize() <= 64);
+        Assert.assertTrue(cache.stats().getHitCount() > 0);
+    }
+
+    @Test
+    public void testPlanCache() throws Exception {
+        UnitConverter.clearCache();
+        long misses = UnitConverter.getPlanCacheStats().getMissCount();
+        long hits = UnitConverter.getPlanCacheStats().getHitCount();
+        Assert.assertEquals("0.01", UnitConverter.convert("cm", "m", "1").toPlainString());
+        Assert.assertEquals("0.02", UnitConverter.convert("cm", "m", "2").toPlainString());
+        Assert.assertEquals(misses + 1, UnitConverter.getPlanCacheStats().getMissCount());
+        Assert.assertEquals(hits + 1, UnitConverter.getPlanCacheStats().getHitCount());
+    }
+}
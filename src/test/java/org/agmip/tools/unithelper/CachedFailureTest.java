@@ -0,0 +1,32 @@
+package org.agmip.tools.unithelper;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class CachedFailureTest {
+
+    public static class NotFoundException extends IllegalStateException {
+
+        public NotFoundException(String id) {
+            super("Unit \"" + id + "\" not found");
+        }
+    }
+
+    @Test
+    public void testNewInstancePerCall() {
+        CachedFailure failure = new CachedFailure(new IllegalArgumentException("bad unit"));
+        Exception first = failure.newException();
+        Exception second = failure.newException();
+        Assert.assertTrue(first != second);
+        Assert.assertEquals(IllegalArgumentException.class, first.getClass());
+        Assert.assertEquals("bad unit", second.getMessage());
+    }
+
+    @Test
+    public void testFormattingConstructor() {
+        CachedFailure failure = new CachedFailure(new NotFoundException("xyz"));
+        Exception ret = failure.newException();
+        Assert.assertEquals(IllegalStateException.class, ret.getClass());
+        Assert.assertEquals("Unit \"xyz\" not found", ret.getMessage());
+    }
+}
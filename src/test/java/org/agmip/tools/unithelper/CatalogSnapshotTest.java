@@ -0,0 +1,67 @@
+package org.agmip.tools.unithelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+import junit.framework.Assert;
+import org.junit.Test;
+import ucar.units.StandardUnitDB;
+import ucar.units.Unit;
+import ucar.units.UnitDB;
+
+public class CatalogSnapshotTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int count = CatalogSnapshot.write(out);
+        Assert.assertTrue(count > 100);
+        UnitDB db = CatalogSnapshot.read(new ByteArrayInputStream(out.toByteArray()));
+        UnitDB standard = StandardUnitDB.instance();
+        for (String name : new String[]{"meter", "foot", "hectare", "watt", "degree_Celsius", "day"}) {
+            Unit unit = db.getByName(name);
+            Assert.assertNotNull(name, unit);
+            Assert.assertEquals(name, standard.getByName(name).convertTo(25.0, unit.getDerivedUnit()),
+                    unit.convertTo(25.0, unit.getDerivedUnit()), 1e-9);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidSnapshot() throws Exception {
+        CatalogSnapshot.read(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+    }
+
+    @Test(expected = IOException.class)
+    public void testWrongMagic() throws Exception {
+        CatalogSnapshot.read(new ByteArrayInputStream(snapshot(0x12345678, CatalogSnapshot.VERSION, 0)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedVersion() throws Exception {
+        CatalogSnapshot.read(new ByteArrayInputStream(snapshot(CatalogSnapshot.MAGIC, 1, 0)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNegativeCount() throws Exception {
+        CatalogSnapshot.read(new ByteArrayInputStream(snapshot(CatalogSnapshot.MAGIC, CatalogSnapshot.VERSION, -1)));
+    }
+
+    @Test
+    public void testBaseUnitMapOnly() {
+        Assert.assertEquals("LENGTH", UnitConverter.getBaseUnitMap().get("L"));
+    }
+
+    private static byte[] snapshot(int magic, int version, int count) throws IOException {
+        String udunits = UnitDB.class.getPackage().getImplementationVersion();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(new GZIPOutputStream(out))) {
+            dos.writeInt(magic);
+            dos.writeInt(version);
+            dos.writeUTF(udunits == null ? "" : udunits);
+            dos.writeInt(count);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,85 @@
+package org.agmip.tools.unithelper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class ColumnFileConverterTest {
+
+    @Test
+    public void testWhitespaceColumns() throws Exception {
+        String data = "*WEATHER DATA\n"
+                + "@DATE  SRAD  TMAX  RAIN\n"
+                + "  day MJ/m2/d degF mm\n"
+                + "01001  15.2  98.6 -99\r\n"
+                + "01002  20.0 212.0   0\n";
+        String expected = "*WEATHER DATA\n"
+                + "@DATE  SRAD  TMAX  RAIN\n"
+                + "  day MJ/m2/d degF mm\n"
+                + "01001 175.9    37 -99\r\n"
+                + "01002 231.5   100   0\n";
+        ColumnFileConverter converter = ColumnFileConverter.whitespaceDelimited();
+        converter.setCommentPrefixes("*@");
+        converter.setUnitLine(2);
+        converter.setTargetUnit(1, "W/m2");
+        converter.setTargetUnit(2, "degC");
+        converter.setTargetUnit(3, "cm");
+        converter.setMissingValues("-99");
+        Assert.assertEquals(5, convert(converter, data, expected));
+    }
+
+    @Test
+    public void testDelimitedColumns() throws Exception {
+        String data = "id,N,C\n1,10,0.5\n2, 25 ,abc\n3,,2\n";
+        String expected = "id,N,C\n1,1,0.5\n2, 2.5 ,abc\n3,,2\n";
+        ColumnFileConverter converter = ColumnFileConverter.delimited(',');
+        converter.setHeaderLines(1);
+        converter.setSourceUnit(1, "kg[N]/ha");
+        converter.setTargetUnit(1, "g/m2");
+        converter.setSourceUnit(2, "g[C]/100g[soil]");
+        converter.setTargetUnit(2, "%");
+        converter.setWindow(16);
+        Assert.assertEquals(4, convert(converter, data, expected));
+    }
+
+    @Test
+    public void testFixedWidthColumns() throws Exception {
+        String data = "  1  2.00  3\n 10 20.00 30\n";
+        String expected = "  1  2000  3\n 10 20000 30\n";
+        ColumnFileConverter converter = ColumnFileConverter.fixedWidth(3, 6, 3);
+        converter.setSourceUnit(1, "kg");
+        converter.setTargetUnit(1, "g");
+        Assert.assertEquals(2, convert(converter, data, expected));
+    }
+
+    @Test
+    public void testFieldOverflow() throws Exception {
+        ColumnFileConverter converter = ColumnFileConverter.fixedWidth(3, 4, 3);
+        converter.setSourceUnit(1, "kg");
+        converter.setTargetUnit(1, "g");
+        try {
+            convert(converter, "  1 9.9  3\n  299.9  4\n", null);
+            Assert.fail("expected overflow of the second column");
+        } catch (IOException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("99900"));
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("line 2"));
+        }
+    }
+
+    private static long convert(ColumnFileConverter converter, String data, String expected) throws Exception {
+        Path in = Files.createTempFile("unithelper", ".in");
+        Path out = Files.createTempFile("unithelper", ".out");
+        try {
+            Files.write(in, data.getBytes(StandardCharsets.UTF_8));
+            long ret = converter.convert(in, out);
+            Assert.assertEquals(expected, new String(Files.readAllBytes(out), StandardCharsets.UTF_8));
+            return ret;
+        } finally {
+            Files.deleteIfExists(in);
+            Files.deleteIfExists(out);
+        }
+    }
+}
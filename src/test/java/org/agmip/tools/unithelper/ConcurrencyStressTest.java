@@ -0,0 +1,104 @@
+package org.agmip.tools.unithelper;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * Multi-threaded stress test of the conversion path. Every thread converts the
+ * same ICASA unit pairs and checks the results against a single threaded run.
+ * The throughput is measured by the JMH benchmarks, not here.
+ */
+public class ConcurrencyStressTest {
+
+    private static final String[][] PAIRS = {
+        {"MJ/m2/d", "W/m2"}, {"kg[N]/ha", "g/m2"}, {"g[C]/100g[soil]", "%"},
+        {"degF", "degC"}, {"mm/d", "cm/month"}, {"cm3/cm3", "%"},
+        {"t/ha", "kg/m2"}, {"kPa", "bar"}, {"mg/kg", "ppm"}, {"km/d", "m/s"}
+    };
+    private static final String[] VALUES = {"0.5", "1", "12.5", "-3.75", "1000", "98.6"};
+    private static final int ITERATIONS = 20000;
+
+    @Test
+    public void testConcurrentConversion() throws Exception {
+        String[] expected = new String[PAIRS.length * VALUES.length];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = convert(i);
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= Math.max(2, cores); threads *= 2) {
+            UnitConverter.clearCache();
+            Assert.assertEquals((long) threads * ITERATIONS, run(threads, expected));
+        }
+    }
+
+    @Test
+    public void testConcurrentLookup() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList();
+            for (int t = 0; t < 4; t++) {
+                results.add(pool.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        for (int i = 0; i < 2000; i++) {
+                            if (!UnitConverter.getCategory("kg[N]/ha").equals(UnitConverter.getCategory("g/m2"))
+                                    || UnitConverter.isValid("kg/(ha" + (i % 50))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static long run(int threads, final String[] expected) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Long>> results = new ArrayList();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t;
+                results.add(pool.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        long count = 0;
+                        for (int i = 0; i < ITERATIONS; i++) {
+                            int idx = (i + offset) % expected.length;
+                            if (!expected[idx].equals(convert(idx))) {
+                                throw new AssertionError("Wrong result for case " + idx);
+                            }
+                            count++;
+                        }
+                        return count;
+                    }
+                }));
+            }
+            long ret = 0;
+            for (Future<Long> result : results) {
+                ret += result.get();
+            }
+            return ret;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static String convert(int idx) throws Exception {
+        String[] pair = PAIRS[idx / VALUES.length];
+        BigDecimal val = new BigDecimal(VALUES[idx % VALUES.length]);
+        return UnitConverter.convert(pair[0], pair[1], val).toPlainString();
+    }
+}
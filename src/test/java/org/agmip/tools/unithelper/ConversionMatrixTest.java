@@ -0,0 +1,104 @@
+package org.agmip.tools.unithelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import junit.framework.Assert;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+public class ConversionMatrixTest {
+
+    private static ConversionMatrix buildMatrix() {
+        return ConversionMatrix.build(Arrays.asList("kg/ha", "g/m2", "degC", "K", "m", "ft", "W/m2", "MJ/m2/d", "junk("));
+    }
+
+    @Test
+    public void testNormalizedLookup() {
+        ConversionMatrix matrix = ConversionMatrix.build(Arrays.asList("kg[N]/ha", "g/m2"));
+        Assert.assertTrue(matrix.contains("kg[N]/ha"));
+        Assert.assertTrue(matrix.contains("kg/ha"));
+        Assert.assertTrue(matrix.contains("kg[P] / ha"));
+        Assert.assertEquals(0.1, matrix.getScale("kg/ha", "g/m2"), 1e-12);
+    }
+
+    @Test
+    public void testLookup() {
+        ConversionMatrix matrix = buildMatrix();
+        Assert.assertEquals(8, matrix.getUnits().size());
+        Assert.assertFalse(matrix.contains("junk("));
+        Assert.assertTrue(matrix.contains("kg[N]/ha"));
+
+        Assert.assertTrue(matrix.areConvertible("kg/ha", "g/m2"));
+        Assert.assertTrue(matrix.isLinear("kg/ha", "g/m2"));
+        Assert.assertEquals(0.1, matrix.getScale("kg/ha", "g/m2"), 1e-12);
+        Assert.assertEquals(0.0, matrix.getOffset("kg/ha", "g/m2"), 1e-12);
+        Assert.assertEquals(273.15, matrix.getOffset("degC", "K"), 1e-9);
+        Assert.assertEquals(0.3048, matrix.getScale("ft", "m"), 1e-12);
+        Assert.assertTrue(matrix.areConvertible("MJ/m2/d", "W/m2"));
+
+        Assert.assertFalse(matrix.areConvertible("degC", "m"));
+        Assert.assertFalse(matrix.areConvertible("kg/ha", "junk("));
+        Assert.assertTrue(Double.isNaN(matrix.getScale("degC", "m")));
+        Assert.assertEquals(UnitConverter.getCategory("m"), matrix.getDimension("ft"));
+    }
+
+    @Test
+    public void testExport() throws IOException {
+        ConversionMatrix matrix = buildMatrix();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        matrix.writeBinary(out);
+        ConversionMatrix copy = ConversionMatrix.readBinary(new ByteArrayInputStream(out.toByteArray()));
+        Assert.assertEquals(matrix.getUnits(), copy.getUnits());
+        Assert.assertEquals(matrix.getScale("kg/ha", "g/m2"), copy.getScale("kg/ha", "g/m2"));
+        Assert.assertEquals(matrix.getOffset("degC", "K"), copy.getOffset("degC", "K"));
+        Assert.assertFalse(copy.areConvertible("degC", "m"));
+
+        JSONObject json = matrix.toJsonObj();
+        Assert.assertEquals(8, ((JSONArray) json.get("units")).size());
+        Assert.assertEquals(4, ((JSONArray) json.get("groups")).size());
+    }
+
+    private static byte[] header(int... counts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(ConversionMatrix.MAGIC);
+        data.writeInt(ConversionMatrix.VERSION);
+        data.writeInt(counts[0]);
+        for (int i = 0; i < counts[0]; i++) {
+            data.writeUTF("u" + i);
+        }
+        for (int i = 1; i < counts.length; i++) {
+            data.writeInt(counts[i]);
+            if (i == 1 && counts.length > 2) {
+                data.writeUTF("LENGTH");
+            }
+        }
+        data.flush();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testInvalidCounts() {
+        int[][] cases = {{-1}, {2, -1}, {2, 3}, {2, 1, -1}, {2, 1, 3}, {2, 1, Integer.MAX_VALUE}};
+        for (int[] counts : cases) {
+            try {
+                ConversionMatrix.readBinary(new ByteArrayInputStream(header(counts)));
+                Assert.fail("expected IOException for " + Arrays.toString(counts));
+            } catch (IOException ex) {
+                Assert.assertTrue(ex.getMessage(), ex.getMessage().startsWith("Invalid"));
+            }
+        }
+    }
+
+    @Test
+    public void testDefaultVocabulary() {
+        ConversionMatrix matrix = ConversionMatrix.build();
+        Assert.assertTrue(matrix.contains("dap"));
+        Assert.assertTrue(matrix.areConvertible("dap", "doy"));
+        Assert.assertEquals(1.0, matrix.getScale("dap", "doy"), 0.0);
+    }
+}
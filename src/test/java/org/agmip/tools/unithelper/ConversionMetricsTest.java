@@ -0,0 +1,98 @@
+package org.agmip.tools.unithelper;
+
+import java.util.Map;
+import junit.framework.Assert;
+import org.agmip.tools.unithelper.ConversionListener.Operation;
+import org.junit.Test;
+
+public class ConversionMetricsTest {
+
+    @Test
+    public void testCounters() {
+        ConversionMetrics metrics = new ConversionMetrics(2);
+        metrics.called(Operation.CONVERT, "kg/ha", "g/m2", 1000, null);
+        metrics.called(Operation.CONVERT, "kg/ha", "degC", 2000, new IllegalArgumentException("incompatible"));
+        metrics.called(Operation.IS_VALID, "kg/ha", null, 10, null);
+        metrics.initFailed("prefix database", new IllegalStateException());
+
+        Assert.assertEquals(2, metrics.getCallCount(Operation.CONVERT));
+        Assert.assertEquals(Long.valueOf(1), metrics.getCallCounts().get("IS_VALID"));
+        Assert.assertEquals(Long.valueOf(1), metrics.getFailureCounts().get("IllegalArgumentException"));
+        Assert.assertEquals(Long.valueOf(1), metrics.getInitFailureCounts().get("prefix database"));
+        Assert.assertEquals(Long.valueOf(1), metrics.getTopFailingPairs().get("kg/ha -> degC"));
+        Assert.assertTrue(metrics.getTopFailingUnits().isEmpty());
+
+        Map<String, Long> top = metrics.getTopUnits();
+        Assert.assertEquals(2, top.size());
+        Assert.assertEquals("kg/ha", top.keySet().iterator().next());
+        Assert.assertEquals(Long.valueOf(3), top.get("kg/ha"));
+
+        long[] histogram = metrics.getConvertLatencyHistogram();
+        Assert.assertEquals(12, histogram.length);
+        Assert.assertEquals(1, histogram[10]);
+        Assert.assertEquals(1, histogram[11]);
+
+        metrics.reset();
+        Assert.assertEquals(0, metrics.getCallCount(Operation.CONVERT));
+        Assert.assertTrue(metrics.getTopUnits().isEmpty());
+        Assert.assertEquals(0, metrics.getConvertLatencyHistogram().length);
+    }
+
+    @Test
+    public void testTopCounterBounded() {
+        ConversionMetrics.TopCounter counter = new ConversionMetrics.TopCounter(4);
+        for (int i = 0; i < 100; i++) {
+            counter.add("kg");
+            counter.add("unit" + i);
+        }
+        Map<String, Long> top = counter.top(10);
+        Assert.assertEquals(4, top.size());
+        Assert.assertEquals("kg", top.keySet().iterator().next());
+        Assert.assertEquals(Long.valueOf(100), top.get("kg"));
+    }
+
+    @Test
+    public void testTopCounterStripes() throws Exception {
+        final ConversionMetrics.TopCounter counter = new ConversionMetrics.TopCounter(4, 4);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    counter.add("kg");
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(Long.valueOf(8000), counter.top(1).get("kg"));
+        counter.clear();
+        Assert.assertTrue(counter.top(1).isEmpty());
+    }
+
+    @Test
+    public void testListener() {
+        ConversionMetrics metrics = new ConversionMetrics();
+        UnitConverter.setListener(metrics);
+        try {
+            UnitConverter.convertToJsonObj("kg/ha", "g/m2", "1");
+            UnitConverter.convertToJsonObj("kg/ha", "metrics_junk(", "1");
+            UnitConverter.isValid("kg/ha");
+        } finally {
+            UnitConverter.setListener(null);
+        }
+        Assert.assertEquals(2, metrics.getCallCount(Operation.CONVERT_JSON));
+        Assert.assertEquals(0, metrics.getCallCount(Operation.CONVERT));
+        Assert.assertEquals(1, metrics.getCallCount(Operation.IS_VALID));
+        Assert.assertTrue(metrics.getTopFailingUnits().containsKey("metrics_junk("));
+        Assert.assertFalse(metrics.getTopFailingUnits().containsKey("kg/ha -> metrics_junk("));
+        Assert.assertEquals(Long.valueOf(1), metrics.getTopFailingPairs().get("kg/ha -> metrics_junk("));
+        long failures = 0;
+        for (Long count : metrics.getFailureCounts().values()) {
+            failures += count;
+        }
+        Assert.assertEquals(1, failures);
+        Assert.assertTrue(metrics.getParseLatencyHistogram().length > 0);
+    }
+}
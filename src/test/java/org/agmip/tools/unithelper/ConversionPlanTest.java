@@ -0,0 +1,140 @@
+package org.agmip.tools.unithelper;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import junit.framework.Assert;
+import org.junit.Test;
+import ucar.units.Unit;
+import ucar.units.UnitFormatManager;
+
+public class ConversionPlanTest {
+
+    @Test
+    public void testAffine() throws Exception {
+        ConversionPlan plan = UnitConverter.compile("degF", "degC");
+        Assert.assertTrue(plan.isLinear());
+        Assert.assertEquals(5.0 / 9.0, plan.getScale(), 1e-12);
+        Assert.assertEquals(-160.0 / 9.0, plan.getOffset(), 1e-9);
+        Assert.assertEquals(100.0, plan.applyAsDouble(212), 1e-9);
+        Assert.assertEquals(0.0, plan.applyAsDouble(32), 1e-9);
+
+        plan = UnitConverter.compile("kg[N]/ha", "g/m2");
+        Assert.assertTrue(plan.isLinear());
+        Assert.assertEquals(0.0, plan.getOffset(), 0);
+        Assert.assertEquals(0.1, plan.applyAsDouble(1), 1e-15);
+    }
+
+    @Test
+    public void testSameAsConvert() throws Exception {
+        String[][] pairs = {
+            {"MJ/m2/d", "W/m2"}, {"g[C]/100g[soil]", "%"}, {"degF", "degC"},
+            {"cm", "m"}, {"g/m2/s", "g/m2/h"}, {"kg[N]/ha", "g/m2"}
+        };
+        String[] values = {"1", "12.5", "-3.75", "1000", "0.001"};
+        for (String[] pair : pairs) {
+            ConversionPlan plan = UnitConverter.compile(pair[0], pair[1]);
+            Assert.assertSame(plan, UnitConverter.compile(pair[0], pair[1]));
+            for (String val : values) {
+                BigDecimal in = new BigDecimal(val);
+                double converted = parse(pair[0]).convertTo(in.doubleValue(), parse(pair[1]));
+                Assert.assertEquals(roundToPrecision(converted, in), plan.apply(in));
+                Assert.assertEquals(new BigDecimal(converted).setScale(3, RoundingMode.HALF_UP), plan.apply(in, 3));
+                Assert.assertEquals(converted, plan.applyAsDouble(in.doubleValue()), 1e-9 * Math.max(1, Math.abs(converted)));
+            }
+        }
+    }
+
+    /**
+     * Parse the unit directly with UDUnits, bypassing the caches.
+     */
+    private static Unit parse(String unitStr) throws Exception {
+        UnitConverter.isValid(unitStr);
+        return UnitFormatManager.instance().parse(UnitStringNormalizer.normalize(unitStr));
+    }
+
+    /**
+     * The rounding of the original convert implementation, which keeps the
+     * significant digits of the input.
+     */
+    private static BigDecimal roundToPrecision(double converted, BigDecimal val) {
+        BigDecimal ret = new BigDecimal(converted);
+        int scale = ret.scale() + val.precision() - ret.precision();
+        ret = ret.setScale(scale + 1, RoundingMode.HALF_UP);
+        BigDecimal alt = ret.setScale(scale, RoundingMode.HALF_UP);
+        while (ret.doubleValue() == alt.doubleValue()) {
+            ret = alt;
+            if (scale > 0) {
+                scale--;
+                alt = alt.setScale(scale, RoundingMode.HALF_UP);
+            } else {
+                break;
+            }
+        }
+        return ret;
+    }
+
+    @Test
+    public void testBulk() throws Exception {
+        double[] src = new double[1000];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = i * 0.25 - 40;
+        }
+        ConversionPlan plan = UnitConverter.compile("degF", "degC");
+        double[] dst = UnitConverter.convert("degF", "degC", src);
+        for (int i = 0; i < src.length; i++) {
+            Assert.assertEquals(plan.applyAsDouble(src[i]), dst[i], 0);
+        }
+
+        double[] part = new double[10];
+        UnitConverter.convert("degF", "degC", src, 5, part, 2, 8);
+        Assert.assertEquals(0.0, part[1], 0);
+        Assert.assertEquals(dst[5], part[2], 0);
+        Assert.assertEquals(dst[12], part[9], 0);
+
+        DoubleBuffer in = ByteBuffer.allocateDirect(src.length * 8).asDoubleBuffer();
+        in.put(src).flip();
+        DoubleBuffer out = ByteBuffer.allocateDirect(src.length * 8).asDoubleBuffer();
+        UnitConverter.convert("degF", "degC", in, out);
+        Assert.assertEquals(src.length, out.position());
+        Assert.assertEquals(0, in.remaining());
+        for (int i = 0; i < src.length; i++) {
+            Assert.assertEquals(dst[i], out.get(i), 0);
+        }
+    }
+
+    @Test
+    public void testRational() {
+        assertRational("1000", "1", 999.9999999999999);
+        assertRational("5", "9", 5.0 / 9.0);
+        assertRational("-160", "9", -160.0 / 9.0);
+        assertRational("625", "54", 1.0E6 / 86400);
+        assertRational("273.15", "1", 273.15);
+        assertRational("0", "1", 0.0);
+        assertRational("3.141592653589793", "1", Math.PI);
+    }
+
+    private static void assertRational(String num, String den, double x) {
+        BigDecimal[] ret = ConversionPlan.rational(x);
+        Assert.assertEquals(num, ret[0].toPlainString());
+        Assert.assertEquals(den, ret[1].toPlainString());
+    }
+
+    @Test
+    public void testApplyExact() throws Exception {
+        ConversionPlan plan = new ConversionPlan("degF", "degC", 5.0 / 9.0, -160.0 / 9.0);
+        Assert.assertEquals(new BigDecimal("100"), plan.applyExact(new BigDecimal("212"), MathContext.DECIMAL64));
+        Assert.assertEquals(new BigDecimal("37.0"), plan.applyExact(new BigDecimal("98.6"), MathContext.DECIMAL64));
+        Assert.assertEquals(new BigDecimal("0.5556"), plan.applyExact(new BigDecimal("33"), new MathContext(4)));
+
+        plan = new ConversionPlan("g/cm3", "kg/m3", 999.9999999999999, 0.0);
+        Assert.assertEquals(new BigDecimal("1500.0"), plan.applyExact(new BigDecimal("1.5"), MathContext.DECIMAL64));
+
+        Assert.assertEquals(0, new BigDecimal("1500").compareTo(
+                UnitConverter.convertExact("g/cm3", "kg/m3", new BigDecimal("1.5"), MathContext.DECIMAL128)));
+        Assert.assertEquals(new BigDecimal("2.5"),
+                UnitConverter.convertExact("kg[N]/ha", "g/m2", new BigDecimal("25"), MathContext.DECIMAL64));
+    }
+}
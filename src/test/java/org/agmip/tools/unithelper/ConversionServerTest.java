@@ -0,0 +1,167 @@
+package org.agmip.tools.unithelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import junit.framework.Assert;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConversionServerTest {
+
+    private ConversionServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ConversionServer(0, 2, 4);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    private static String read(HttpURLConnection conn) throws IOException {
+        InputStream in = conn.getResponseCode() >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRouting() throws IOException {
+        HttpURLConnection conn = open("/unknown");
+        Assert.assertEquals(404, conn.getResponseCode());
+        read(conn);
+
+        conn = open("/convertx");
+        Assert.assertEquals(404, conn.getResponseCode());
+        read(conn);
+
+        conn = open("/convert");
+        conn.setRequestMethod("POST");
+        Assert.assertEquals(405, conn.getResponseCode());
+        read(conn);
+
+        conn = open("/convert?unit_from=kg");
+        Assert.assertEquals(400, conn.getResponseCode());
+        JSONObject ret = (JSONObject) JSONValue.parse(read(conn));
+        Assert.assertEquals("1", ret.get("status"));
+
+        conn = open("/stats");
+        Assert.assertEquals(200, conn.getResponseCode());
+        ret = (JSONObject) JSONValue.parse(read(conn));
+        JSONObject convert = (JSONObject) ((JSONObject) ret.get("endpoints")).get("convert");
+        Assert.assertEquals(2L, convert.get("requests"));
+        Assert.assertEquals(2L, convert.get("errors"));
+        JSONObject stats = (JSONObject) ((JSONObject) ret.get("endpoints")).get("stats");
+        Assert.assertEquals(0L, stats.get("errors"));
+        Assert.assertEquals(2L, ((JSONObject) ret.get("unknown_endpoint")).get("requests"));
+
+        conn = open("/descp?unit=kg%2");
+        Assert.assertEquals(400, conn.getResponseCode());
+        read(conn);
+    }
+
+    @Test
+    public void testOverload() throws Exception {
+        server.stop(0);
+        server = new ConversionServer(0, 1, 1);
+        server.start();
+        HttpURLConnection[] batches = new HttpURLConnection[2];
+        OutputStream[] bodies = new OutputStream[2];
+        for (int i = 0; i < batches.length; i++) {
+            // An unfinished request body keeps the worker, then the queue, busy
+            batches[i] = open("/batch");
+            batches[i].setRequestMethod("POST");
+            batches[i].setDoOutput(true);
+            batches[i].setChunkedStreamingMode(0);
+            bodies[i] = batches[i].getOutputStream();
+            bodies[i].write("[".getBytes(StandardCharsets.UTF_8));
+            bodies[i].flush();
+            Thread.sleep(200);
+        }
+        HttpURLConnection conn = open("/prefixes");
+        Assert.assertEquals(503, conn.getResponseCode());
+        read(conn);
+
+        for (int i = 0; i < batches.length; i++) {
+            bodies[i].write("]".getBytes(StandardCharsets.UTF_8));
+            bodies[i].close();
+            Assert.assertEquals(200, batches[i].getResponseCode());
+            Assert.assertEquals("[]", read(batches[i]));
+        }
+        conn = open("/stats");
+        JSONObject ret = (JSONObject) JSONValue.parse(read(conn));
+        Assert.assertEquals(1L, ret.get("rejected"));
+    }
+
+    @Test
+    public void testParseQuery() throws IOException {
+        Map<String, String> ret = ConversionServer.parseQuery("unit_from=kg%2Fha&unit_to=g+m-2&flag&unit_from=x");
+        Assert.assertEquals("kg/ha", ret.get("unit_from"));
+        Assert.assertEquals("g m-2", ret.get("unit_to"));
+        Assert.assertEquals("", ret.get("flag"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseQueryInvalidEscape() throws IOException {
+        ConversionServer.parseQuery("unit=kg%2");
+    }
+
+    @Test
+    public void testConvert() throws IOException {
+        HttpURLConnection conn = open("/convert?unit_from=kg%2Fha&unit_to=g%2Fm2&value_from=1");
+        Assert.assertEquals(200, conn.getResponseCode());
+        Assert.assertEquals(UnitConverter.convertToJsonStr("kg/ha", "g/m2", "1"), read(conn));
+
+        conn = open("/descp?unit=kg%5BN%5D%2Fha");
+        JSONObject ret = (JSONObject) JSONValue.parse(read(conn));
+        Assert.assertEquals(UnitConverter.getDescp("kg[N]/ha"), ret.get("descp"));
+    }
+
+    @Test
+    public void testBatch() throws IOException {
+        HttpURLConnection conn = open("/batch");
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write("[{\"unit_from\":\"kg/ha\",\"unit_to\":\"g/m2\",\"value_from\":\"1\"}]".getBytes(StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals(200, conn.getResponseCode());
+        String ret = read(conn);
+        Assert.assertEquals("[" + UnitConverter.convertToJsonStr("kg/ha", "g/m2", "1") + "]", ret);
+    }
+
+    @Test
+    public void testMalformedBatch() throws IOException {
+        HttpURLConnection conn = open("/batch");
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write("[}".getBytes(StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals(400, conn.getResponseCode());
+        JSONObject ret = (JSONObject) JSONValue.parse(read(conn));
+        Assert.assertEquals("1", ret.get("status"));
+    }
+}
@@ -0,0 +1,71 @@
+package org.agmip.tools.unithelper;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import junit.framework.Assert;
+import org.agmip.tools.unithelper.UnitConverter.UNIT_TYPE;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+public class JsonWriterTest {
+
+    @Test
+    public void testEscaping() throws IOException {
+        String[] values = {"kg/ha", "g[C]/100g[soil]", "quote \" and \\ back", "tab\tnew\nline",
+            "\u0001\u001f\u007f\u0085", "‐dash€", "°C", ""};
+        for (String value : values) {
+            StringBuilder ret = new StringBuilder();
+            JsonWriter.writeString(value, ret);
+            Assert.assertEquals(JSONValue.toJSONString(value), ret.toString());
+        }
+        StringBuilder ret = new StringBuilder();
+        JsonWriter.writeString(null, ret);
+        Assert.assertEquals("null", ret.toString());
+    }
+
+    @Test
+    public void testResultKeyOrder() {
+        ConversionRequest request = new ConversionRequest("kg/ha", "g/m2", new BigDecimal("1.50"));
+        ConversionResult success = ConversionResult.success(request, new BigDecimal("0.150"));
+        Assert.assertEquals(success.toJsonObj().toJSONString(), success.toJsonStr());
+        ConversionResult failure = ConversionResult.failure(request, "undefined unit");
+        Assert.assertEquals(failure.toJsonObj().toJSONString(), failure.toJsonStr());
+        ConversionResult nullMessage = ConversionResult.failure(new ConversionRequest(null, "g/m2", "1"), null);
+        Assert.assertEquals(nullMessage.toJsonObj().toJSONString(), nullMessage.toJsonStr());
+    }
+
+    @Test
+    public void testConverterOutputs() throws IOException {
+        BigDecimal val = new BigDecimal("12.5");
+        String expected = UnitConverter.convertToJsonObj("MJ/m2/d", "W/m2", val).toJSONString();
+        Assert.assertEquals(expected, UnitConverter.convertToJsonStr("MJ/m2/d", "W/m2", val));
+
+        StringWriter writer = new StringWriter();
+        UnitConverter.convertToJson("MJ/m2/d", "W/m2", val, writer);
+        Assert.assertEquals(expected, writer.toString());
+
+        ByteBuffer buf = ByteBuffer.allocate(1024);
+        UnitConverter.convertToJson("MJ/m2/d", "W/m2", val, buf);
+        Assert.assertEquals(expected, new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8));
+
+        String failed = UnitConverter.convertToJsonObj("MJ/m2/d", "degC", val, 2).toJSONString();
+        Assert.assertEquals(failed, UnitConverter.convertToJsonStr("MJ/m2/d", "degC", val, 2));
+
+        ByteBuffer small = ByteBuffer.allocate(16);
+        small.position(3);
+        try {
+            UnitConverter.convertToJson("MJ/m2/d", "W/m2", val, small);
+            Assert.fail("expected overflow");
+        } catch (BufferOverflowException ex) {
+            Assert.assertEquals(3, small.position());
+        }
+
+        StringBuilder units = new StringBuilder();
+        UnitConverter.listUnitJson(UNIT_TYPE.LENGTH, units);
+        Assert.assertEquals(UnitConverter.listUnitJsonStr(UNIT_TYPE.LENGTH), units.toString());
+    }
+}
@@ -0,0 +1,84 @@
+package org.agmip.tools.unithelper;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class ParallelConverterTest {
+
+    @Test
+    public void testSpliterator() {
+        List<Integer> list = IntStream.range(0, 10).boxed().collect(Collectors.toList());
+        ParallelConverter.RecordSpliterator<Integer> right = new ParallelConverter.RecordSpliterator(list, 0, 10);
+        ParallelConverter.RecordSpliterator<Integer> left = right.trySplit();
+        Assert.assertEquals(5, left.estimateSize());
+        Assert.assertEquals(5, right.estimateSize());
+        Assert.assertEquals(5, right.origin());
+        Assert.assertTrue(right.hasCharacteristics(Spliterator.SUBSIZED | Spliterator.ORDERED));
+        List<Integer> seen = new ArrayList();
+        left.forEachRemaining(seen::add);
+        right.forEachRemaining(seen::add);
+        Assert.assertEquals(list, seen);
+        Assert.assertEquals(0, right.estimateSize());
+        Assert.assertNull(right.trySplit());
+    }
+
+    @Test
+    public void testOrderAndStatus() {
+        List<ConversionRequest> requests = new ArrayList();
+        for (int i = 0; i < 1000; i++) {
+            if (i % 100 == 7) {
+                requests.add(new ConversionRequest("kg/ha", "degC", String.valueOf(i)));
+            } else {
+                requests.add(new ConversionRequest("kg/ha", "g/m2", String.valueOf(i)));
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<ConversionResult> results = new ParallelConverter(pool, 16).convert(requests);
+            Assert.assertEquals(requests.size(), results.size());
+            for (int i = 0; i < results.size(); i++) {
+                ConversionResult ret = results.get(i);
+                Assert.assertSame(requests.get(i), ret.getRequest());
+                Assert.assertEquals(UnitConverter.convertToJsonObj(requests.get(i).getFromUnit(), requests.get(i).getToUnit(), requests.get(i).getValue()), ret.toJsonObj());
+            }
+            Assert.assertFalse(results.get(7).isSuccessful());
+            Assert.assertEquals(new BigDecimal("0.1"), results.get(1).getValue());
+
+            List<ConversionResult> streamed = new ParallelConverter(pool).convert(requests.stream());
+            Assert.assertEquals(results.get(999).getValue(), streamed.get(999).getValue());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testResolveOncePerBatch() {
+        ParallelConverter.PairResolver resolver = new ParallelConverter.PairResolver();
+        ParallelConverter.PairResolver.Cursor cursor = resolver.cursor();
+        cursor.convert(new ConversionRequest("kg/ha", "g/m2", "1"));
+        cursor.convert(new ConversionRequest("kg/ha", "g/m2", "2"));
+        resolver.convert(new ConversionRequest("kg/ha", "g/m2", "3"));
+        Assert.assertEquals(1, resolver.size());
+        ConversionResult ret = cursor.convert(new ConversionRequest(null, "g/m2", "1"));
+        Assert.assertEquals("undefined unit", ret.getMessage());
+        Assert.assertEquals(1, resolver.size());
+    }
+
+    @Test
+    public void testArray() throws Exception {
+        double[] src = new double[10000];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = i;
+        }
+        double[] ret = new ParallelConverter(ForkJoinPool.commonPool(), 100).convert("degC", "K", src, null);
+        Assert.assertEquals(273.15, ret[0], 1e-9);
+        Assert.assertEquals(10272.15, ret[9999], 1e-9);
+    }
+}
@@ -0,0 +1,68 @@
+package org.agmip.tools.unithelper;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * Compatibility test of the primitive rounding against the BigDecimal output.
+ */
+public class SignificantRoundingTest {
+
+    @Test
+    public void testRandomValues() {
+        Random rand = new Random(20180601L);
+        for (int i = 0; i < 500000; i++) {
+            double val;
+            switch (i % 3) {
+                case 0:
+                    val = rand.nextDouble() * Math.pow(10, rand.nextInt(30) - 15);
+                    break;
+                case 1:
+                    val = (rand.nextInt(20000) - 10000) * Math.pow(10, rand.nextInt(20) - 10);
+                    break;
+                default:
+                    val = Math.round(rand.nextGaussian() * 1e6) / 1000.0 * 1.8 + 32;
+            }
+            assertSameRounding(val, 1 + rand.nextInt(16));
+        }
+    }
+
+    @Test
+    public void testSpecialValues() {
+        double[] values = {0.0, -0.0, 1.0, 1000, 0.001, 999.9999999999999, 1.0E-6, 0.5, 9.95, 99.5, 1.0E21, 4.9E-324};
+        for (double val : values) {
+            for (int precision = 1; precision <= 17; precision++) {
+                assertSameRounding(val, precision);
+                assertSameRounding(-val, precision);
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsConvert() throws Exception {
+        String[][] pairs = {{"degF", "degC"}, {"MJ/m2/d", "W/m2"}, {"kg[N]/ha", "g/m2"}, {"g/cm3", "kg/m3"}};
+        String[] values = {"1", "12.5", "-3.75", "1000", "0.001", "98.60"};
+        for (String[] pair : pairs) {
+            for (String val : values) {
+                BigDecimal in = new BigDecimal(val);
+                BigDecimal expected = UnitConverter.convert(pair[0], pair[1], in);
+                StringBuilder sb = new StringBuilder();
+                UnitConverter.convertSignificant(pair[0], pair[1], in.doubleValue(), in.precision(), sb);
+                Assert.assertEquals(expected.toPlainString(), sb.toString());
+                Assert.assertEquals(expected.doubleValue(),
+                        UnitConverter.convertSignificant(pair[0], pair[1], in.doubleValue(), in.precision()), 0);
+            }
+        }
+    }
+
+    private static void assertSameRounding(double val, int precision) {
+        BigDecimal expected = SignificantRounding.round(val, precision);
+        StringBuilder sb = new StringBuilder();
+        SignificantRounding.append(val, precision, sb);
+        String msg = val + " with precision " + precision;
+        Assert.assertEquals(msg, expected.toPlainString(), sb.toString());
+        Assert.assertEquals(msg, expected.doubleValue(), SignificantRounding.roundToDouble(val, precision), 0);
+    }
+}
@@ -0,0 +1,63 @@
+package org.agmip.tools.unithelper;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import junit.framework.Assert;
+import org.agmip.tools.unithelper.UnitClassifier.Classification;
+import org.agmip.tools.unithelper.UnitClassifier.DimensionGroup;
+import org.junit.Test;
+
+public class UnitClassifierTest {
+
+    @Test
+    public void testClassify() {
+        UnitConverter.clearCache();
+        Classification c = UnitClassifier.classify("kg[N]/ha");
+        Assert.assertTrue(c.isValid());
+        Assert.assertEquals("kg/ha", c.getName());
+        Assert.assertEquals(UnitConverter.computeCategory("kg[N]/ha"), c.getDimension());
+        Assert.assertEquals(UnitConverter.computeDescp("kg[N]/ha"), c.getDescp());
+        // kg[N]/ha is a dictionary string, which is not shared by its normalized expression
+        Assert.assertSame(UnitClassifier.classify("kg/ha"), UnitClassifier.classify("kg[P] / ha"));
+        Assert.assertEquals("L", UnitClassifier.classify("cm").getType().getCode());
+        Assert.assertEquals(c.getDimension(), UnitConverter.getCategory("kg/ha"));
+
+        Classification invalid = UnitClassifier.classify("kg/(ha");
+        Assert.assertFalse(invalid.isValid());
+        Assert.assertEquals("", invalid.getDimension());
+        Assert.assertEquals("", invalid.getExpression());
+        Assert.assertNull(invalid.getType());
+
+        Assert.assertTrue(UnitClassifier.size() > 0);
+        UnitConverter.clearCache();
+        Assert.assertEquals(0, UnitClassifier.size());
+    }
+
+    @Test
+    public void testDictionaryFirst() {
+        // Dictionary entries can not be removed, the entry stays for the rest of the test JVM
+        UnitConverter.addDictionaryEntry("agmip_classifier_test", "g/m2");
+        Assert.assertFalse(UnitClassifier.classify("agmip_classifier_test[a]").isValid());
+        Classification c = UnitClassifier.classify("agmip_classifier_test");
+        Assert.assertTrue(c.isValid());
+        Assert.assertEquals(UnitConverter.getCategory("g/m2"), c.getDimension());
+        Assert.assertEquals(c.getDimension(), UnitConverter.getCategory("agmip_classifier_test"));
+        Assert.assertFalse(UnitClassifier.classify("agmip_classifier_test[a]").isValid());
+    }
+
+    @Test
+    public void testClassifyAll() {
+        List<String> headers = Arrays.asList("kg[N]/ha", "g/m2", "cm", "mm", "kg/(ha", "degC", "g/m2");
+        Map<String, Classification> ret = UnitClassifier.classifyAll(headers);
+        Assert.assertEquals(Arrays.asList("kg[N]/ha", "g/m2", "cm", "mm", "kg/(ha", "degC"), Arrays.asList(ret.keySet().toArray()));
+        Assert.assertEquals(ret.get("kg[N]/ha").getDimension(), ret.get("g/m2").getDimension());
+
+        List<DimensionGroup> groups = UnitClassifier.groupByDimension(headers);
+        Assert.assertEquals(3, groups.size());
+        Assert.assertEquals(Arrays.asList("kg[N]/ha", "g/m2"), groups.get(0).getUnits());
+        Assert.assertEquals(Arrays.asList("cm", "mm"), groups.get(1).getUnits());
+        Assert.assertEquals("L", groups.get(1).getType().getCode());
+        Assert.assertEquals(Arrays.asList("degC"), groups.get(2).getUnits());
+    }
+}
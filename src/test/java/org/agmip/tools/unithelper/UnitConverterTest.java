@@ -2,6 +2,8 @@ package org.agmip.tools.unithelper;
 
 import java.math.BigDecimal;
 import junit.framework.Assert;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
 //import org.junit.Assert;
 import org.junit.Test;
 import ucar.units.ConversionException;
@@ -186,4 +188,33 @@ public class UnitConverterTest {
     public void testCategory() {
         Assert.assertEquals("Plane Angle", UnitConverter.getCategory("deg"));
     }
+
+    @Test
+    public void testListUnit() throws Exception {
+        Assert.assertEquals(UnitConverter.UNIT_TYPE.LENGTH, UnitConverter.UNIT_TYPE.codeOf("L"));
+        Assert.assertEquals(UnitConverter.UNIT_TYPE.UNKNOWN, UnitConverter.UNIT_TYPE.codeOf("L.M"));
+        Assert.assertEquals(UnitConverter.UNIT_TYPE.UNKNOWN, UnitConverter.UNIT_TYPE.codeOf(null));
+
+        String length = UnitConverter.listUnitJsonStr("L");
+        Assert.assertSame(length, UnitConverter.listUnitJsonStr(UnitConverter.UNIT_TYPE.LENGTH));
+        Assert.assertEquals(UnitConverter.listUnitJsonArray("L").toJSONString(), length);
+        Assert.assertEquals(UnitConverter.listUnit("L").size(), UnitConverter.listUnitJsonArray("L").size());
+        Assert.assertTrue(length.contains("\"name\":\"meter\""));
+        Assert.assertFalse(length.contains("agmip_test_length"));
+
+        JSONArray copy = UnitConverter.listUnitJsonArray("L");
+        ((JSONObject) copy.get(0)).put("name", "changed");
+        copy.clear();
+        Assert.assertEquals(length, UnitConverter.listUnitJsonArray("L").toJSONString());
+    }
+
+    @Test
+    public void testAliasRebuildsListing() throws Exception {
+        Assert.assertFalse(UnitConverter.listUnitJsonStr("L").contains("agmip_test_length"));
+        // Aliases can not be removed, so the alias stays in the unit database
+        // and the caches are cleared for the rest of the test JVM
+        UnitConverter.addAlias("agmip_test_length", "meter");
+        Assert.assertTrue(UnitConverter.listUnitJsonStr("L").contains("agmip_test_length"));
+        Assert.assertTrue(UnitConverter.isValid("agmip_test_length"));
+    }
 }
@@ -0,0 +1,36 @@
+package org.agmip.tools.unithelper;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class UnitDictionaryTest {
+
+    @Test
+    public void testBuiltInEntries() {
+        UnitLookup ret = UnitConverter.lookup("kg[N]/ha");
+        Assert.assertTrue(UnitDictionary.size() > 0);
+        Assert.assertSame(ret, UnitConverter.lookup("kg[N]/ha"));
+        Assert.assertEquals(UnitLookup.Status.VALID, ret.getStatus());
+        // Same answers as the regular path, which normalizes the spaces away
+        Assert.assertEquals(UnitConverter.getDescp("kg[N] / ha"), UnitConverter.getDescp("kg[N]/ha"));
+        Assert.assertEquals(UnitConverter.getCategory("MJ / m2 / d"), UnitConverter.getCategory("MJ/m2/d"));
+        Assert.assertEquals(UnitConverter.getDescp("count/cm3"), UnitConverter.getDescp("counts/cm3"));
+    }
+
+    @Test
+    public void testRuntimeEntries() {
+        Assert.assertEquals(UnitLookup.Status.VALID, UnitConverter.addDictionaryEntry("agmip_dict_test", "g/m2").getStatus());
+        Assert.assertTrue(UnitConverter.isValid("agmip_dict_test"));
+        Assert.assertEquals(UnitConverter.getCategory("g/m2"), UnitConverter.getCategory("agmip_dict_test"));
+
+        Assert.assertEquals(UnitLookup.Status.INVALID, UnitConverter.addDictionaryEntry("agmip_dict_junk", "g/(m2").getStatus());
+        Assert.assertFalse(UnitConverter.isValid("agmip_dict_junk"));
+
+        String entries = "# extra entries\nseeds\\ per\\ plant=count\nbroken=kg/(ha\n";
+        int added = UnitConverter.loadDictionary(new ByteArrayInputStream(entries.getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(1, added);
+        Assert.assertTrue(UnitConverter.isValid("seeds per plant"));
+    }
+}
@@ -0,0 +1,40 @@
+package org.agmip.tools.unithelper;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class UnitLookupTest {
+
+    @Test
+    public void testValidUnit() {
+        UnitLookup ret = UnitConverter.lookup("kg[N]/ha");
+        Assert.assertEquals(UnitLookup.Status.VALID, ret.getStatus());
+        Assert.assertTrue(ret.isParsed());
+        Assert.assertNull(ret.getReason());
+        Assert.assertNotNull(ret.getUnit());
+    }
+
+    @Test
+    public void testInvalidUnit() {
+        String junk = "kg/(ha";
+        UnitLookup ret = UnitConverter.lookup(junk);
+        Assert.assertEquals(UnitLookup.Status.INVALID, ret.getStatus());
+        Assert.assertFalse(ret.isParsed());
+        Assert.assertNotNull(ret.getReason());
+        Assert.assertFalse(UnitConverter.isValid(junk));
+
+        long hits = UnitConverter.getInvalidUnitCacheStats().getHitCount();
+        Assert.assertSame(ret, UnitConverter.lookup(junk));
+        Assert.assertSame("same normalized expression", ret, UnitConverter.lookup("kg[N]/(ha"));
+        Assert.assertEquals(hits + 2, UnitConverter.getInvalidUnitCacheStats().getHitCount());
+        Assert.assertEquals("", UnitConverter.getDescp(junk));
+        Assert.assertEquals("", UnitConverter.getCategory(junk));
+        Assert.assertEquals("1", UnitConverter.convertToJsonObj(junk, "kg/m2", "1").get("status"));
+    }
+
+    @Test
+    public void testNullUnit() {
+        Assert.assertEquals(UnitLookup.Status.INVALID, UnitConverter.lookup(null).getStatus());
+        Assert.assertFalse(UnitConverter.isValid(null));
+    }
+}
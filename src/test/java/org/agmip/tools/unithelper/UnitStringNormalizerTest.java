@@ -0,0 +1,82 @@
+package org.agmip.tools.unithelper;
+
+import java.util.Random;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * Differential test of the hand-written normalizer against the original
+ * regular expression based pre-parsing.
+ */
+public class UnitStringNormalizerTest {
+
+    private static final String[] SPLITTER = {"/", "\\.", "\\*"};
+    private static final String[] ICASA_SPECIAL = {"100g"};
+
+    private static final String[] UNITS = {
+        "number", "year", "m2", "m", "arc_degree", "cm", "days", "decimal_degree",
+        "percent", "day", "doy", "1/d", "g/cm3", "%", "mg/kg", "cmol/kg",
+        "g[C]/100g[soil]", "kg/ha", "mm", "kg[N]/ha", "counts/cm3", "unitless",
+        "ppm", "degC", "number/m2", "kg[P]/ha", "kg[K]/ha", "fraction", "h",
+        "MJ/m2/d", "km/d", "m2/m2", "kg[OM]/ha", "cm3/cm3", "cm/h", "1/cm",
+        "g/Mg", "mmol/kg", "mmol/l", "g/kg", "ppb", "seimens", "kPa/degC",
+        "1/mm2", "mm/month", "number/month", "mole/m2/d", "hr", "mm/d", "kPa",
+        "dap", "g/eye", "g/m2", "g/[plant]", "g/[unit]", "kg/hl", "l/kg", "mg",
+        "mg/ha", "t/ha", "kg[water]/kg[harvest]", "%/day", "cm/cm2", "cm/g",
+        "cm2", "cm2/g", "cm2/leaf", "cm2/plant", "g", "g/cm", "g/[corm]",
+        "g/m2/d", "g.[plant]-1.d-1", "g/[plant-1]/d", "g/[shoot]", "kg/ha/d",
+        "mg/cm2", "mg/m2/s", "number/day", "number/[plant]", "number/[shoot]",
+        "number/[ear]", "ratio", "g/cm2", "cm/cm3", "g/MJ", "mg/l", "cm/cm2/d",
+        "cm/cm3/d", "cm2/m2/d", "m2/m2/d", "m^2", "g/(m^2s)", "g/m2/h",
+        "mole/(m2.d)", "g.[plant]^-2.d-1", "g.[plant]^2.d-1", "g/[plant]^2/d",
+        "g/[plant]^-2/d", "cm3[water]/cm3[soil]", "degree angle", "mole/m2.d",
+        "kPa/°C", "#/m2", "cm/cm2.d", "number/m2/d", "",
+        "a///b", "a/./b", "a.*./b/", "g/", "g\\.", "g\\*", "g[open", "g]x[a]b",
+        "[a[b]c", "100g100g", "g /  100g\t[x]", "g./*", "x/^-12./-3*"
+    };
+
+    @Test
+    public void testKnownUnits() {
+        for (String unit : UNITS) {
+            Assert.assertEquals(unit, regexPreParsing(unit), UnitStringNormalizer.normalize(unit));
+        }
+    }
+
+    @Test
+    public void testRandomUnits() {
+        Random rand = new Random(20180512L);
+        char[] alphabet = "gkm/.*^-0123[]( )\t1\\".toCharArray();
+        for (int i = 0; i < 200000; i++) {
+            char[] buf = new char[rand.nextInt(12)];
+            for (int j = 0; j < buf.length; j++) {
+                buf[j] = alphabet[rand.nextInt(alphabet.length)];
+            }
+            String unit = new String(buf);
+            Assert.assertEquals(unit, regexPreParsing(unit), UnitStringNormalizer.normalize(unit));
+        }
+    }
+
+    @Test
+    public void testUnchangedInstance() {
+        String unit = "MJ/m2/d";
+        Assert.assertSame(unit, UnitStringNormalizer.normalize(unit));
+    }
+
+    private static String regexPreParsing(String unit) {
+        String ret = unit.replaceAll("\\[[^\\]]*\\]", "").replaceAll("\\s", "");
+        for (String s1 : SPLITTER) {
+            for (String s2 : SPLITTER) {
+                ret = ret.replaceAll(s1 + "\\^?-?\\d*" + s2, s2);
+            }
+        }
+        for (String s : ICASA_SPECIAL) {
+            ret = ret.replaceAll(s, "(" + s + ")");
+        }
+        for (String s : SPLITTER) {
+            if (ret.endsWith(s)) {
+                ret = ret.substring(0, ret.length() - 1);
+            }
+        }
+        return ret;
+    }
+}
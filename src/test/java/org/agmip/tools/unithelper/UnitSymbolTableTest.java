@@ -0,0 +1,79 @@
+package org.agmip.tools.unithelper;
+
+import java.math.BigDecimal;
+import junit.framework.Assert;
+import org.junit.Test;
+import ucar.units.ConversionException;
+
+public class UnitSymbolTableTest {
+
+    @Test
+    public void testInterning() {
+        UnitSymbolTable table = new UnitSymbolTable();
+        int id = table.idOf("kg[N]/ha");
+        Assert.assertEquals(0, id);
+        Assert.assertEquals(id, table.idOf("kg/ha"));
+        Assert.assertEquals(id, table.idOf("kg[P] / ha"));
+        Assert.assertEquals("kg/ha", table.nameOf(id));
+        Assert.assertEquals("kg[N]/ha", table.sourceOf(id));
+        Assert.assertEquals(1, table.idOf("g/m2"));
+        for (int i = 0; i < 200; i++) {
+            table.idOf("m" + i);
+        }
+        Assert.assertEquals(202, table.size());
+        Assert.assertEquals("m199", table.nameOf(201));
+        try {
+            table.nameOf(202);
+            Assert.fail("expected unknown ID");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    @Test
+    public void testPairTable() {
+        UnitSymbolTable table = new UnitSymbolTable();
+        Assert.assertNull(table.getPair(0, 0));
+        Object zero = new Object();
+        int gen = table.generation();
+        table.putPair(0, 0, zero, gen);
+        for (int i = 0; i < 100; i++) {
+            for (int j = 1; j < 10; j++) {
+                table.putPair(i, j, i * 10 + j, gen);
+            }
+        }
+        Assert.assertSame(zero, table.getPair(0, 0));
+        Assert.assertEquals(995, table.getPair(99, 5));
+        Assert.assertNull(table.getPair(5, 99));
+
+        table.reset();
+        Assert.assertNull(table.getPair(0, 0));
+        table.putPair(1, 2, "stale", gen);
+        Assert.assertNull("writes of an old generation are dropped", table.getPair(1, 2));
+    }
+
+    @Test
+    public void testConvertById() throws Exception {
+        int from = UnitConverter.getUnitId("kg[N]/ha");
+        int to = UnitConverter.getUnitId("g/m2");
+        BigDecimal val = new BigDecimal("12.5");
+        Assert.assertEquals(UnitConverter.convert("kg[N]/ha", "g/m2", val), UnitConverter.convert(from, to, val));
+        Assert.assertEquals(UnitConverter.convert("kg[N]/ha", "g/m2", val, 3), UnitConverter.convert(from, to, val, 3));
+        Assert.assertEquals(1.25, UnitConverter.convert(from, to, 12.5), 1e-12);
+        Assert.assertSame(UnitConverter.compile(from, to), UnitConverter.compile(from, to));
+        Assert.assertEquals(UnitConverter.getDescp("kg[N]/ha"), UnitConverter.getDescp(from));
+        Assert.assertEquals(UnitConverter.getCategory("g/m2"), UnitConverter.getCategory(to));
+
+        int temp = UnitConverter.getUnitId("degC");
+        ConversionException[] failures = new ConversionException[2];
+        for (int i = 0; i < failures.length; i++) {
+            try {
+                UnitConverter.convert(from, temp, val);
+                Assert.fail("expected conversion failure");
+            } catch (ConversionException ex) {
+                failures[i] = ex;
+            }
+        }
+        Assert.assertTrue("a new exception per call", failures[0] != failures[1]);
+        Assert.assertEquals(failures[0].getMessage(), failures[1].getMessage());
+    }
+}
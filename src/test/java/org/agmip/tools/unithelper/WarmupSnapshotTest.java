@@ -0,0 +1,86 @@
+package org.agmip.tools.unithelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class WarmupSnapshotTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        WarmupSnapshot snapshot = new WarmupSnapshot(1234L);
+        int kg = snapshot.addUnit("kg[N]/ha", "kg/ha", "kg/ha", "M/L2", "kg.m-2");
+        int g = snapshot.addUnit("g/m2", "g/m2", "g/m2", "M/L2", "kg.m-2");
+        Assert.assertEquals(kg, snapshot.addUnit("kg[N]/ha", "kg/ha", "kg/ha", "M/L2", "kg.m-2"));
+        snapshot.addPair(kg, g, 0.1, 0.0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot.write(out);
+        WarmupSnapshot ret = WarmupSnapshot.read(new ByteArrayInputStream(out.toByteArray()));
+        Assert.assertEquals(1234L, ret.fingerprint);
+        Assert.assertEquals(2, ret.units.size());
+        Assert.assertEquals("kg[N]/ha", ret.units.get(0).source);
+        Assert.assertEquals("kg/ha", ret.units.get(0).name);
+        Assert.assertEquals("M/L2", ret.units.get(1).category);
+        Assert.assertEquals("kg.m-2", ret.units.get(1).dimension);
+        Assert.assertEquals(1, ret.pairs.size());
+        Assert.assertEquals(1, ret.pairs.get(0).to);
+        Assert.assertEquals(0.1, ret.pairs.get(0).scale, 0.0);
+
+        byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 4);
+        try {
+            WarmupSnapshot.read(new ByteArrayInputStream(truncated));
+            Assert.fail("expected truncated snapshot");
+        } catch (IOException ex) {
+        }
+        try {
+            WarmupSnapshot.read(new ByteArrayInputStream(new byte[16]));
+            Assert.fail("expected invalid snapshot");
+        } catch (IOException ex) {
+        }
+    }
+
+    @Test
+    public void testFingerprint() {
+        HashMap<String, String> aliases = new HashMap();
+        aliases.put("dap", "day");
+        aliases.put("unitless", "1");
+        long base = WarmupSnapshot.fingerprint(null, aliases);
+        Assert.assertEquals(base, WarmupSnapshot.fingerprint(null, new HashMap(aliases)));
+        aliases.put("doy", "day");
+        Assert.assertTrue(base != WarmupSnapshot.fingerprint(null, aliases));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        Path file = Files.createTempFile("warmup", ".snapshot");
+        try {
+            UnitConverter.clearCache();
+            BigDecimal expected = UnitConverter.convert("kg[N]/ha", "g/m2", "25");
+            BigDecimal temp = UnitConverter.convert("degC", "degF", "20");
+            BigDecimal scaled = UnitConverter.convert("kg[N]/ha", "g/m2", new BigDecimal("0.35"), 3);
+            WarmupSnapshot.save(file);
+
+            UnitConverter.clearCache();
+            Assert.assertTrue(WarmupSnapshot.load(file));
+            ConversionPlan plan = UnitConverter.compile("kg[N]/ha", "g/m2");
+            Assert.assertTrue(plan.isLinear());
+            Assert.assertEquals(expected, plan.apply(new BigDecimal("25")));
+            Assert.assertEquals(scaled, plan.apply(new BigDecimal("0.35"), 3));
+            Assert.assertEquals(temp, UnitConverter.convert("degC", "degF", "20"));
+            int id = UnitConverter.getUnitId("kg[N]/ha");
+            Assert.assertEquals(UnitConverter.getDescp("kg/ha"), UnitConverter.getDescp(id));
+            Assert.assertTrue(UnitConverter.lookup(id).isParsed());
+        } finally {
+            Files.deleteIfExists(file);
+            UnitConverter.clearCache();
+        }
+    }
+}